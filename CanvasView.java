@@ -0,0 +1,148 @@
+import javafx.geometry.VPos;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+import java.util.Arrays;
+
+/**
+ * CanvasView class is a Renderer drawing the visible lines onto a single Canvas, one glyph run
+ * per line instead of one Text node per char
+ *
+ * 	rows: chars drawn on every row of the window, rowLengths of them, what a row is compared
+ * 		against to tell whether it must be redrawn
+ * 	scratch: chars of the line about to be drawn on a row, swapped with the row if they differ
+ * 	drawnFirstLine, drawnRows: firstLine and number of rows of the last render
+ *
+ * Only the rows whose chars changed are cleared and redrawn, so typing redraws a line or two
+ * and the scene graph holds one node however large the window is. A run is drawn starting at
+ * the x Layout gives its first char, the chars of a run advance by the same widths Layout
+ * measured, so the cursor and the highlights line up with it.
+ */
+public class CanvasView implements Renderer {
+    private final TextBuffer buffer;
+    private final double x;
+    private final double y;
+    private final double lineHeight;
+    private final Canvas canvas;
+    private final GraphicsContext graphics;
+    private char[][] rows;
+    private int[] rowLengths;
+    private char[] scratch;
+    private int drawnFirstLine;
+    private int drawnRows;
+    private boolean dirty;
+
+    /** Creates a view whose text is drawn with its top left corner at (x, y) */
+    public CanvasView(TextBuffer buffer, Font font, double x, double y, double lineHeight) {
+        this.buffer = buffer;
+        this.x = x;
+        this.y = y;
+        this.lineHeight = lineHeight;
+        canvas = new Canvas();
+        graphics = canvas.getGraphicsContext2D();
+        graphics.setFont(font);
+        graphics.setFill(Color.BLACK);
+        graphics.setTextBaseline(VPos.TOP);
+        rows = new char[0][];
+        rowLengths = new int[0];
+        scratch = new char[256];
+        drawnFirstLine = -1;
+        drawnRows = 0;
+        dirty = true;
+    }
+
+    @Override
+    public Node getNode() {
+        return canvas;
+    }
+
+    /** Resizing a Canvas clears it, every row is redrawn by the next render */
+    @Override
+    public void setSize(double width, double height) {
+        if (width != canvas.getWidth() || height != canvas.getHeight()) {
+            canvas.setWidth(width);
+            canvas.setHeight(height);
+            Arrays.fill(rowLengths, -1);
+            dirty = true;
+        }
+    }
+
+    @Override
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /** Redraws the rows whose chars changed, nothing at all if neither the buffer nor firstLine did */
+    @Override
+    public int render(Layout layout, int firstLine, int visibleLines) {
+        int rowCount = visibleLines + 1;
+        if (!dirty && firstLine == drawnFirstLine && rowCount == drawnRows) {
+            return 0;
+        }
+        if (rowCount > rows.length) {
+            int oldLength = rows.length;
+            rows = Arrays.copyOf(rows, rowCount);
+            rowLengths = Arrays.copyOf(rowLengths, rowCount);
+            for (int row = oldLength; row < rowCount; row++) {
+                rows[row] = new char[0];
+                rowLengths[row] = -1; // never drawn, unlike an empty row
+            }
+        }
+        int redrawn = 0;
+        for (int row = 0; row < rows.length; row++) {
+            int line = firstLine + row;
+            double rowY = y + row * lineHeight;
+            if (row >= rowCount || line >= layout.lineCount()) {
+                if (rowLengths[row] != 0) {
+                    graphics.clearRect(0, rowY, canvas.getWidth(), lineHeight);
+                    rowLengths[row] = 0;
+                }
+                continue;
+            }
+            int length = readLine(layout, line);
+            if (length == rowLengths[row] && Arrays.equals(scratch, 0, length, rows[row], 0, length)) {
+                continue;
+            }
+            graphics.clearRect(0, rowY, canvas.getWidth(), lineHeight);
+            if (length > 0) {
+                graphics.fillText(new String(scratch, 0, length), x + layout.getGlyphX()[0], rowY);
+            }
+            char[] drawn = rows[row];
+            rows[row] = scratch;
+            rowLengths[row] = length;
+            scratch = drawn.length >= scratch.length ? drawn : new char[scratch.length];
+            redrawn++;
+        }
+        drawnFirstLine = firstLine;
+        drawnRows = rowCount;
+        dirty = false;
+        return redrawn;
+    }
+
+    /** A single Canvas, however many lines are shown */
+    @Override
+    public int nodeCount() {
+        return 1;
+    }
+
+    /** Reads the chars of line Layout positions into scratch, without its newline, returns how many */
+    private int readLine(Layout layout, int line) {
+        // Unwrapped lines can be arbitrarily long, only the chars up to the right edge are read
+        int count = layout.positionGlyphs(line);
+        int start = layout.lineStart(line);
+        if (count > scratch.length) {
+            scratch = new char[Math.max(count, scratch.length * 2)];
+        }
+        int length = 0;
+        for (int i = 0; i < count; i++) {
+            char c = buffer.charAt(start + i);
+            if (c != '\n') {
+                scratch[length++] = c;
+            }
+        }
+        return length;
+    }
+}
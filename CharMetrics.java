@@ -0,0 +1,11 @@
+/**
+ * CharMetrics interface provides the sizes Layout needs to place chars, independently of how
+ * they are drawn, so that layout can run and be tested without a JavaFX stage
+ */
+public interface CharMetrics {
+    /** Returns the advance width of c, 0 for '\n', the distance between two tab stops for '\t' */
+    double width(char c);
+
+    /** Returns the height of a line of text */
+    double getLineHeight();
+}
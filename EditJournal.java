@@ -0,0 +1,296 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EditJournal class is a write-ahead log of the edits made to a file since it was last saved,
+ * kept in a sidecar file so that they can be replayed after a crash
+ *
+ * 	file: the journal, a header identifying the version of the document on disk it applies to
+ * 		(its length and last modified time), followed by one record per edit
+ * 	pending: records not yet written, appended on the FX thread
+ * 	recorded: number of bytes of records so far, written or not, used to mark where a save was
+ * 	dropped: number of bytes of records dropped from the journal because they were saved
+ * 	replayedLength: length of the journal up to the last record replayed, recording resumes there
+ *
+ * A record is the offset of the edit, the number of chars it removed, the number of chars it
+ * inserted and those chars: typing costs 14 bytes a keystroke. Records are written by the
+ * journal thread every COMMIT_INTERVAL ms in one go and forced to disk right after, so a
+ * burst of edits costs one write and one force. A crash loses at most that interval.
+ *
+ * The journal is only deleted once it holds no edits, edits that were never saved are
+ * recovered the next time the file is opened.
+ */
+public class EditJournal {
+    private static final long COMMIT_INTERVAL = 200;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private final File file;
+    private final ScheduledExecutorService journalExecutor;
+    private ByteBuffer pending;
+    private long recorded;
+    private long dropped; // only touched on the journal thread
+    private long replayedLength;
+    private FileChannel channel; // only touched on the journal thread once open
+
+    public EditJournal(File file) {
+        this.file = file;
+        pending = ByteBuffer.allocate(1 << 12);
+        recorded = 0;
+        dropped = 0;
+        replayedLength = 0;
+        journalExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "journal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /** Returns the journal of document, a hidden file next to it */
+    public static File journalFileFor(File document) {
+        File parent = document.getAbsoluteFile().getParentFile();
+        return new File(parent, "." + document.getName() + ".journal");
+    }
+
+    /**
+     * Applies the edits of the journal to buffer if it was written for the version of the
+     * document that is on disk, a journal for any other version is discarded
+     * A record cut off by a crash ends the replay. Returns the number of edits replayed.
+     */
+    public int replay(TextBuffer buffer, long documentLength, long documentModified) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int replayed = 0;
+        long length = HEADER_SIZE;
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readLong() != documentLength || in.readLong() != documentModified) {
+                System.out.println("Discarding " + file + ", the file changed since it was written");
+                return 0;
+            }
+            while (true) {
+                int offset = in.readInt();
+                int removed = in.readInt();
+                int count = in.readInt();
+                // Checked before anything is allocated, a corrupt count could be negative or huge
+                long remaining = fileLength - length - RECORD_HEADER_SIZE;
+                if (offset < 0 || removed < 0 || offset > buffer.length() - removed
+                        || count < 0 || count > remaining / 2) {
+                    System.out.println("Stopping the replay of " + file + ", it is corrupt");
+                    break;
+                }
+                char[] inserted = new char[count];
+                for (int i = 0; i < inserted.length; i++) {
+                    inserted[i] = in.readChar();
+                }
+                buffer.replace(offset, removed, CharBuffer.wrap(inserted));
+                replayed++;
+                length += RECORD_HEADER_SIZE + 2 * inserted.length;
+            }
+        } catch (EOFException e) {
+            // Last record is complete or was cut off by a crash, either way the replay is done
+        }
+        replayedLength = length;
+        return replayed;
+    }
+
+    /**
+     * Starts recording edits right after the records replayed, anything after them is cut off,
+     * or in a new journal for the version of the document on disk if nothing was replayed
+     */
+    public synchronized void open(final long documentLength, final long documentModified) {
+        final long keptLength = replayedLength;
+        recorded = Math.max(0, keptLength - HEADER_SIZE);
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    if (keptLength > HEADER_SIZE) {
+                        channel.truncate(keptLength);
+                        channel.position(keptLength);
+                    } else {
+                        channel.truncate(0);
+                        writeHeader(channel, documentLength, documentModified);
+                    }
+                } catch (IOException e) {
+                    System.out.println("Unable to write to journal " + file);
+                }
+            }
+        });
+        journalExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                commit();
+            }
+        }, COMMIT_INTERVAL, COMMIT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /** Records that removed chars at offset were replaced by the inserted chars now at offset of text */
+    public synchronized void record(int offset, int removed, CharSequence text, int inserted) {
+        int size = RECORD_HEADER_SIZE + 2 * inserted;
+        if (pending.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.putInt(offset).putInt(removed).putInt(inserted);
+        for (int i = offset; i < offset + inserted; i++) {
+            pending.putChar(text.charAt(i));
+        }
+        recorded += size;
+    }
+
+    /** Returns a mark of the edits recorded so far, to pass to saved once they are on disk */
+    public synchronized long mark() {
+        return recorded;
+    }
+
+    /**
+     * Drops the records up to mark, whose edits were saved to the document, which now has
+     * the given length and last modified time. The records after mark are kept.
+     * Also used once the document was changed by another program, records of the edits
+     * relative to the changed document are then recorded after mark.
+     * Can be called from any thread, saves must be reported in the order they were marked.
+     */
+    public void saved(final long mark, final long documentLength, final long documentModified) {
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    commit();
+                    File temp = new File(file.getPath() + ".tmp");
+                    try (FileChannel rewritten = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        writeHeader(rewritten, documentLength, documentModified);
+                        long tail = HEADER_SIZE + mark - dropped;
+                        while (tail < channel.size()) {
+                            tail += channel.transferTo(tail, channel.size() - tail, rewritten);
+                        }
+                        rewritten.force(true);
+                    }
+                    channel.close();
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    channel.position(channel.size());
+                    dropped = mark;
+                } catch (IOException e) {
+                    System.out.println("Unable to write to journal " + file);
+                }
+            }
+        });
+    }
+
+    /**
+     * Makes the journal apply to the document once it has the given length and last modified
+     * time, chars having been appended to both the document and the buffer, such as the lines
+     * written to a followed file. The records kept apply to the longer document as they are.
+     */
+    public void rebase(final long documentLength, final long documentModified) {
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    ByteBuffer header = header(documentLength, documentModified);
+                    while (header.hasRemaining()) {
+                        channel.write(header, header.position()); // in place, records go on where they were
+                    }
+                    channel.force(false);
+                } catch (IOException e) {
+                    System.out.println("Unable to write to journal " + file);
+                }
+            }
+        });
+    }
+
+    /** Writes what is pending and stops the journal thread, deleting the journal if it is empty */
+    public void close() {
+        journalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    commit();
+                    boolean empty = channel.size() <= HEADER_SIZE;
+                    channel.close();
+                    channel = null;
+                    if (empty) {
+                        Files.deleteIfExists(file.toPath());
+                    }
+                } catch (IOException e) {
+                    System.out.println("Unable to close journal " + file);
+                }
+            }
+        });
+        journalExecutor.shutdown();
+        try {
+            journalExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            System.out.println("Unable to close journal " + file);
+        }
+    }
+
+    /** Writes the pending records in one go and forces them to disk, on the journal thread */
+    private void commit() {
+        ByteBuffer records;
+        synchronized (this) {
+            if (pending.position() == 0 || channel == null) {
+                return;
+            }
+            pending.flip();
+            records = pending;
+            pending = ByteBuffer.allocate(1 << 12);
+        }
+        try {
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            System.out.println("Unable to write to journal " + file);
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long documentLength, long documentModified)
+            throws IOException {
+        ByteBuffer header = header(documentLength, documentModified);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private static ByteBuffer header(long documentLength, long documentModified) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(documentLength).putLong(documentModified).flip();
+        return header;
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class EditJournalTest {
+    public static void main(String[] args) throws IOException {
+        File document = File.createTempFile("journal", ".txt");
+        document.deleteOnExit();
+        File file = EditJournal.journalFileFor(document);
+        file.deleteOnExit();
+
+        // A valid record is replayed
+        write(file, document, 1, 0, 2, "XY");
+        TextBuffer buffer = new TextBuffer("abc".toCharArray());
+        check(new EditJournal(file).replay(buffer, document.length(), document.lastModified()) == 1, "replayed");
+        check(buffer.toString().equals("aXYbc"), buffer.toString());
+
+        // Corrupt counts end the replay instead of being allocated
+        int[] corrupt = {-5, Integer.MAX_VALUE, 1000};
+        for (int count : corrupt) {
+            write(file, document, 0, 0, count, "Z");
+            buffer = new TextBuffer("abc".toCharArray());
+            check(new EditJournal(file).replay(buffer, document.length(), document.lastModified()) == 0,
+                    "count " + count);
+            check(buffer.toString().equals("abc"), buffer.toString());
+        }
+
+        // As do offsets past the end of the buffer
+        write(file, document, 2, 5, 0, "");
+        check(new EditJournal(file).replay(buffer, document.length(), document.lastModified()) == 0, "offset");
+
+        // Records made before chars were appended to the document apply to the rebased journal
+        file.delete();
+        EditJournal journal = new EditJournal(file);
+        journal.open(document.length(), document.lastModified());
+        buffer = new TextBuffer("abc".toCharArray());
+        buffer.insert(1, "XY");
+        journal.record(1, 0, buffer, 2);
+        journal.rebase(document.length() + 3, document.lastModified() + 1000);
+        journal.close();
+        buffer = new TextBuffer("abcdef".toCharArray());
+        check(new EditJournal(file).replay(buffer, document.length() + 3, document.lastModified() + 1000) == 1,
+                "rebased");
+        check(buffer.toString().equals("aXYbcdef"), buffer.toString());
+
+        // Records dropped up to a mark no longer apply, those recorded after it apply to the new document
+        file.delete();
+        journal = new EditJournal(file);
+        journal.open(document.length(), document.lastModified());
+        buffer = new TextBuffer("abc".toCharArray());
+        buffer.insert(1, "XY");
+        journal.record(1, 0, buffer, 2);
+        journal.saved(journal.mark(), 5, document.lastModified() + 2000);
+        buffer = new TextBuffer("abcde".toCharArray());
+        buffer.replace(0, 2, "Z");
+        journal.record(0, 2, buffer, 1);
+        journal.close();
+        buffer = new TextBuffer("abcde".toCharArray());
+        check(new EditJournal(file).replay(buffer, 5, document.lastModified() + 2000) == 1, "dropped");
+        check(buffer.toString().equals("Zcde"), buffer.toString());
+        System.out.println("EditJournalTest passed");
+    }
+
+    /** Writes a journal for document holding a single record */
+    private static void write(File file, File document, int offset, int removed, int count, String inserted)
+            throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeLong(document.length());
+            out.writeLong(document.lastModified());
+            out.writeInt(offset);
+            out.writeInt(removed);
+            out.writeInt(count);
+            out.writeChars(inserted);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
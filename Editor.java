@@ -4,65 +4,140 @@
  * Project: Text Editor
  */
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.scene.Group;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
-import javafx.scene.text.Text;
 import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.geometry.VPos;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.event.EventHandler;
+import javafx.scene.input.Clipboard;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.KeyCode;
 import javafx.animation.Timeline;
 import javafx.animation.KeyFrame;
 import javafx.util.Duration;
-import javafx.geometry.VPos;
 import javafx.scene.image.ImageView;
 import javafx.scene.image.Image;
 import java.io.File;
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.io.IOException;
 import javafx.beans.value.ObservableValue;
 import javafx.beans.value.ChangeListener;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 
 
 /**
  * Core DS:
- * 	TextBuffer - Fast DLL for storing Text objects displayed in Editor
- * 		curr: pointer to current node that cursor was adj to
- * 		traverser: pointer to current node that can be used to traverse TextBuffer
- * 	Scene Graph - Tree for rendering Text in TextBuffer
+ * 	TextBuffer - document model storing plain chars in a PieceTable
+ * 		curr: offset of the cursor, the char at curr - 1 is the one the cursor is adj to
+ * 		listeners: notified after every edit
+ * 		history: compact log of the edits for undo and redo, never holds on to any node
+ * 	Layout - wraps the chars of TextBuffer into visual lines, headless
+ * 		lineStarts: offset of the first char of every visual line
+ * 		glyphX: x of every char of a line, what TextView places its nodes at
+ * 	GlyphMetrics - cached advance widths of the font, the CharMetrics used for all layout and hit-testing
+ * 	Renderer - view layer, picked with -Deditor.renderer=text, line or canvas
+ * 		TextView: recycled pool of Text nodes, one per char, for the lines around the viewport
+ * 		LineView: recycled pool of Text nodes, one per visual line, updated when the line changes
+ * 		CanvasView: one Canvas, each visible line drawn as a glyph run and redrawn if it changed
+ * 	Scene Graph - Tree for rendering the Text nodes of TextView
  * 		root: Group Node for displaying all Text
- * 		children: cursor node + text nodes
+ * 		children: background image + match highlights + node of the renderer + cursor + find bar
  *
- * Rendering (linear time)
- * 	Recalculated position of all Text objects after the cursor whenever a special key
- * 	such as enter or backspace was pressed
- * 	Used TextBuffer to traverse through all Text nodes that needed to be repositioned
+ * Rendering
+ * 	Whenever TextBuffer changes, Layout rewraps the lines around the edit until the wrapping
+ * 	converges with the old one, later lines are only shifted
+ * 	Resizing rewraps everything once per pulse, in parallel off the FX thread
+ * 	The renderer only draws the lines from firstLine to the bottom of the window, so
+ * 	rendering costs the same no matter how large the file is
+ * 	Cursor position is computed from Layout, never read back from a Text node
  *
  */
 
 public class Editor extends Application {
     private Group root;
     private TextBuffer buffer;
+    private Layout layout;
+    private Renderer view;
+    private Font font;
+    private GlyphMetrics metrics;
     private Rectangle cursor;
     private int cursorX;
     private int cursorY;
+    private int firstLine; // first visual line shown at the top of the window
     private int windowHeight;
     private int windowWidth;
     private int textHeight;
-    private boolean enterSeen;
-    private int lowerBoundY;
     private File file;
+    private TextCodec codec; // charset and line separator the file was read with and will be saved with
+    private FileChannel originalBytes; // bytes the buffer was loaded from if they are 1:1 with its chars
+    private MappedText mapped; // original chars of the buffer if they are read straight from the file, null otherwise
+    private final ScheduledExecutorService saveExecutor; // also checks whether other programs changed the file
+    private FileFingerprint fingerprint; // contents of the file on disk as of the last save or check, save thread only
+    private FileFingerprint originalFingerprint; // contents of originalBytes, save thread only
+    private final LocalEdits localEdits; // edits since the file was saved
+    private int pendingOverwrites; // number of saves over changes made by others whose snapshot was taken but that haven't finished
+    private int changesFound; // number of changes other programs made to the file found by checks, save thread only
+    private int changesSeen; // number of those the FX thread has reloaded or ignored
+    private boolean reloading; // whether the buffer is catching up with changes other programs made to the file
+    private boolean diverged; // whether the file and the buffer changed in the same place since the last save
+    private boolean changedOnDisk; // whether another program changed the file, its bytes can't be copied on save
+    private EditJournal journal; // null until the edits of the last session have been replayed
+    private boolean indexing; // whether a mapped file is still being added to the buffer, it can't be edited or saved until then
+    private boolean partial; // whether a mapped file was cut off at MappedText.MAX_LENGTH, it can't ever be edited or saved
+    private boolean stale; // whether another program changed a mapped file, it can't be edited or saved until it is reopened
+    private boolean appending; // whether the buffer is being extended with chars of the file itself
+    private FileFollower follower; // null unless following the file
+    private final AnimationTimer pulseTimer;
+    private final StringBuilder typed; // chars typed since the last pulse, added as one edit
+    private boolean widthChanged; // whether the window width changed since the last pulse
+    private final ExecutorService searchExecutor;
+    private boolean finding; // whether the find bar is open, typed chars then go to query
+    private boolean replacing; // whether the replace bar is open, query is then a regex
+    private boolean editingReplacement; // whether typed chars go to replacement rather than query
+    private final StringBuilder query;
+    private final StringBuilder replacement;
+    private String replaceStatus; // outcome of the last replace all
+    private TextSearch search; // search for query, null while query is empty
+    private int[] matches; // offsets of every match of search, sorted, filled in the background
+    private int currentMatch; // index in matches of the match the cursor is on, -1 if none
+    private int findOrigin; // offset the cursor was at when the find bar was opened
+    private Future<?> searchTask;
+    private int searches; // number of searches started, tells whether a finished one is stale
+    private final Group highlights;
+    private final Text findBar;
+    private boolean rewrapping; // whether a rewrap of the whole buffer is in flight
+    private int rewrapEditStart; // chars [rewrapEditStart, rewrapEditEnd) were edited since the rewrap in flight began, -1 if none
+    private int rewrapEditEnd;
+    private int rewrapEditDelta; // number of chars they grew by
+    private final EditorStats stats;
+    private final long[] keyTimes; // when the key events not yet on screen arrived, in nanos
+    private int pendingKeys; // number of entries of keyTimes in use
 
     private final static int STARTING_WINDOW_HEIGHT = 500;
     private final static int STARTING_WINDOW_WIDTH = 500;
@@ -71,24 +146,71 @@ public class Editor extends Application {
     private final static String FONT_NAME = "Verdana";
     private final static int STARTING_X = 5;
     private final static int STARTING_Y = 0;
-
-    /** Constructor for instantiating Cursor, TextBuffer */
+    private final static int INDEX_CHUNK_SIZE = 1 << 22;
+    /** Number of chunks a rewrap splits the buffer into, to keep every core busy */
+    private final static int WRAP_CHUNKS = 4 * Runtime.getRuntime().availableProcessors();
+    /** Files larger than this many bytes are mapped and paged in lazily instead of read */
+    private final static long LAZY_LOAD_THRESHOLD = Long.getLong("editor.lazyLoadThreshold", 64L << 20);
+    /** File the stats are written to when the editor exits, none if unset */
+    private final static String STATS_FILE = System.getProperty("editor.statsFile");
+    /** Number of ms between two checks of whether another program changed the file */
+    private final static long CHECK_INTERVAL = 1000;
+    /** Whether to follow the file as it is written to, like tail -f */
+    private final static boolean FOLLOW = Boolean.getBoolean("editor.follow");
+    /** Renderer drawing the text, "text" for a Text node per char, "line" per line or "canvas" for a single Canvas */
+    private final static String RENDERER = System.getProperty("editor.renderer", "text");
+    /** Number of key events whose latency can be pending at once, any more within a pulse share a time */
+    private final static int MAX_PENDING_KEYS = 64;
+
+    /** Constructor for instantiating Cursor, the document is created once the file is read */
     public Editor() {
-		buffer = new TextBuffer();
-		cursorX = STARTING_X;
-		cursorY = STARTING_Y;
-		lowerBoundY = STARTING_Y;
-		windowHeight = STARTING_WINDOW_HEIGHT;
-		windowWidth = STARTING_WINDOW_WIDTH;
-		enterSeen = false;
-
-		// t is a temporary Text obj used for determining the height of the font so that
-		// cursor height can be set
-		Text t = new Text(0, 0, "");
-		t.setFont(Font.font(FONT_NAME, FONT_SIZE));
-		textHeight = (int) Math.floor(t.getLayoutBounds().getHeight());
-		cursor = new Rectangle(cursorX, cursorY, 1, textHeight);
-		cursor.setFill(Color.BLACK); // sets color of rectangle to black
+        cursorX = STARTING_X;
+        cursorY = STARTING_Y;
+        firstLine = 0;
+        windowHeight = STARTING_WINDOW_HEIGHT;
+        windowWidth = STARTING_WINDOW_WIDTH;
+        // One Font for every Text node, its glyph widths are measured once and cached
+        font = Font.font(FONT_NAME, FONT_SIZE);
+        metrics = new GlyphMetrics(font);
+        textHeight = (int) Math.floor(metrics.getLineHeight());
+
+        cursor = new Rectangle(cursorX, cursorY, 1, textHeight);
+        cursor.setFill(Color.BLACK); // sets color of rectangle to black
+
+        saveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "save");
+                thread.setDaemon(false); // let a save in flight finish when the window closes
+                return thread;
+            }
+        });
+        typed = new StringBuilder();
+        pulseTimer = new PulseTimer();
+        localEdits = new LocalEdits();
+
+        searchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "search");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        query = new StringBuilder();
+        replacement = new StringBuilder();
+        replaceStatus = "";
+        matches = new int[0];
+        currentMatch = -1;
+        highlights = new Group();
+        findBar = new Text();
+        findBar.setFont(font);
+        findBar.setTextOrigin(VPos.TOP);
+        findBar.setVisible(false);
+
+        stats = new EditorStats(RENDERER);
+        keyTimes = new long[MAX_PENDING_KEYS];
+        pendingKeys = 0;
     }
 
 
@@ -103,244 +225,648 @@ public class Editor extends Application {
 
 		@Override
 		public void handle(KeyEvent keyEvent) {
+			keyArrived();
 			// Check if a character-generating key was typed
-			if (keyEvent.getEventType() == keyEvent.KEY_TYPED) {
+			if (keyEvent.getEventType() == KeyEvent.KEY_TYPED) {
 				String character = keyEvent.getCharacter();
-                    if (!keyEvent.isShortcutDown()) {
-                        add(character);
-                    }
-					// marks key event as finished
-					keyEvent.consume();
-			} else if (keyEvent.getEventType() == keyEvent.KEY_PRESSED) {
+                if (!keyEvent.isShortcutDown() && replacing) {
+                    addToReplace(character);
+                } else if (!keyEvent.isShortcutDown() && finding) {
+                    addToQuery(character);
+                } else if (!keyEvent.isShortcutDown()) {
+                    add(character);
+                }
+                // marks key event as finished
+                keyEvent.consume();
+			} else if (keyEvent.getEventType() == KeyEvent.KEY_PRESSED) {
 				KeyCode code = keyEvent.getCode(); // only key pressed key events have an associated code
-				Text text = buffer.currText();
+				if (actsOnBuffer(keyEvent)) {
+				    flushTyped(); // chars typed before this key must land first
+                }
 
-				// Need to handle shortcuts,  arrows, backspace, and enter
-				// Shortcut: + or =, -, s
+				// Need to handle shortcuts, arrows and backspace, enter arrives as a typed "\r"
+				// Shortcut: s, shift s to save over changes made by others, v, z to undo and shift z to redo,
+				// f to find, r to replace
 				if (keyEvent.isShortcutDown()) {
-				    if (code == KeyCode.S) {
-				        try {
-                            FileWriter fileWriter = new FileWriter(file);
-                            buffer.currToSentinel();
-                            buffer.nextCurr();
-                            while (buffer.currText() != null) {
-                                text = buffer.currText();
-                                if (text.getText().equals("\r")) {
-                                    fileWriter.write('\n');
-                                } else {
-                                    fileWriter.write(text.getText().toCharArray()[0]);
-                                }
-                                buffer.nextCurr();
-                            }
-                            fileWriter.close();
-                            buffer.resetCurr();
-                        } catch (IOException e) {
-				            System.out.println("Unable to write to file");
-				            return;
-                        }
+				    if (code == KeyCode.F) {
+				        setFinding(!finding);
+                    } else if (code == KeyCode.R) {
+				        setReplacing(!replacing);
+                    } else if (code == KeyCode.S) {
+				        save(keyEvent.isShiftDown());
+                    } else if (code == KeyCode.V) {
+				        paste();
+                    } else if (code == KeyCode.Z && keyEvent.isShiftDown() && editable()) {
+				        buffer.redo();
+                    } else if (code == KeyCode.Z && editable()) {
+				        buffer.undo();
+                    }
+                } else if (replacing && code == KeyCode.ESCAPE) {
+				    setReplacing(false);
+                } else if (replacing && code == KeyCode.TAB) {
+				    editingReplacement = !editingReplacement;
+				    showMatches();
+                } else if (replacing && code == KeyCode.ENTER) {
+				    replaceAll();
+                } else if (replacing && code == KeyCode.BACK_SPACE) {
+				    StringBuilder field = editingReplacement ? replacement : query;
+				    if (field.length() > 0) {
+				        field.setLength(field.length() - 1);
+				        showMatches();
+                    }
+                } else if (finding && code == KeyCode.ESCAPE) {
+				    setFinding(false);
+                } else if (finding && code == KeyCode.ENTER) {
+				    nextMatch(!keyEvent.isShiftDown());
+                } else if (finding && code == KeyCode.BACK_SPACE) {
+				    if (query.length() > 0) {
+				        query.setLength(query.length() - 1);
+				        startSearch(true);
                     }
                 } else if (code == KeyCode.UP) {
-					if (cursorY != STARTING_Y) {
-						while (buffer.currText().getY() > cursorY - textHeight) {
-							buffer.prevCurr();
-						}
-						while (buffer.currText().getX() > cursorX) {
-							buffer.prevCurr();
-						}
-
-						// Update cursor to either be on left or right side of character ABOVE
-						// depending on which side is closer to cursorX
-						setCursorToClosest(cursorX);
+                    int line = layout.lineOf(buffer.currOffset());
+					if (line > 0) {
+					    // Move to whichever boundary of the line ABOVE is closest to cursorX
+					    setCursorToClosest(line - 1, cursorX);
 					}
 				} else if (code == KeyCode.DOWN) {
-					if (lowerBoundY > cursorY) {
-						while (buffer.nextText().getY() < cursorY + textHeight) {
-							buffer.nextCurr();
-						}
-						buffer.nextCurr();
-                        while (buffer.nextText() != null &&  buffer.nextText().getX() < cursorX
-                                && buffer.nextText().getY() <= cursorY + textHeight) {
-                            buffer.nextCurr();
-                        }
-
-                        // Update cursor to either be on left or right side of character BELOW
-                        // depending on which side is closer to cursorX
-                        setCursorToClosest(cursorX);
+                    int line = layout.lineOf(buffer.currOffset());
+					if (line < layout.lineCount() - 1) {
+                        // Move to whichever boundary of the line BELOW is closest to cursorX
+                        setCursorToClosest(line + 1, cursorX);
 					}
 				} else if (code == KeyCode.LEFT) {
-					if (text != null) {
-						// If cursor is at beginning of new line, move to end of line above without changing buffer
-						if (round(text.getY()) != cursorY) {
-							updateCursor(text.getX() + text.getLayoutBounds().getWidth(), text.getY());
-						} else {
-							updateCursor(text.getX(), text.getY());
-							buffer.prevCurr();
-						}
-						setCursor(cursorX, cursorY);
-
-						// If enter "\r" is seen, call handle again to skip over it
-						skipOverEnter(text, keyEvent);
-					}
+				    buffer.prevCurr();
+				    updateCursor();
 				} else if (code == KeyCode.RIGHT) {
-					Text nextText = buffer.nextText();
-					if (nextText != null) {
-						// If cursor is at end of line, move to beginning of new line without changing buffer
-						if (round(nextText.getY()) != cursorY) {
-							updateCursor(nextText.getX(), nextText.getY());
-						} else {
-							updateCursor(cursorX + nextText.getLayoutBounds().getWidth(), cursorY);
-							buffer.nextCurr();
-						}
-						setCursor(cursorX, cursorY);
-
-						// If enter "\r" is seen, call handle again to skip over it
-                        skipOverEnter(nextText, keyEvent);
-					}
-				} else if (code == KeyCode.BACK_SPACE) {
-					if (text != null) {
-						root.getChildren().remove(text); // remove from graph
-						buffer.remove(); // remove from buffer;
-						text = buffer.currText(); // removing from buffer will cause text to be assigned to a new Text Node
-						if (text != null) {
-							updateCursor(text.getX() + text.getLayoutBounds().getWidth(), text.getY());
-						} else {
-							updateCursor(STARTING_X, STARTING_Y);
-						}
-						setCursor(cursorX, cursorY);
-						reformat();
-					}
-				} else if (code == KeyCode.ENTER) {
-				    // If pressing enter at starting X,Y, need to add a place holder "\r" at the 1st line
-                    // so that you can get back to that position
-					if (text == null) {
-					    Text placeHolderText = new Text("\r");
-					    placeHolderText.setX(STARTING_X);
-					    placeHolderText.setY(STARTING_Y);
-					    placeHolderText.setTextOrigin(VPos.TOP);
-					    placeHolderText.setFont(Font.font(FONT_NAME, FONT_SIZE));
-
-					    buffer.add(placeHolderText);
-					    root.getChildren().add(placeHolderText);
-                    }
-				    newline();
-					setCursor(cursorX, cursorY);
+				    buffer.nextCurr();
+				    updateCursor();
+				} else if (code == KeyCode.BACK_SPACE && editable()) {
+				    buffer.remove();
 				}
-				enterSeen = false;
 			}
 		}
 
-        private void skipOverEnter(Text text, KeyEvent keyEvent) {
-            if (text.getText().equals("\r") && !enterSeen) {
-                enterSeen = true;
-                this.handle(keyEvent);
-            }
+        /**
+         * Whether a pressed key is handled below, moving the cursor or changing the buffer
+         * The key of a plain char is handled once it is typed, the chars queued before it
+         * are left for the pulse to add along with it.
+         */
+        private boolean actsOnBuffer(KeyEvent keyEvent) {
+            KeyCode code = keyEvent.getCode();
+            boolean barKey = code == KeyCode.ESCAPE || code == KeyCode.TAB || code == KeyCode.ENTER;
+            return keyEvent.isShortcutDown() || ((finding || replacing) && barKey)
+                    || code == KeyCode.UP || code == KeyCode.DOWN || code == KeyCode.LEFT
+                    || code == KeyCode.RIGHT || code == KeyCode.BACK_SPACE;
         }
 	}
 
-	private void add(String character) {
-        if (character.length() > 0 && character.charAt(0) != 8) {
-            // Create a new text object containing the typed character
-            Text textToDisplay = new Text(character);
-            textToDisplay.setTextOrigin(VPos.TOP);
-            textToDisplay.setFont(Font.font(FONT_NAME, FONT_SIZE));
-
-            // Add Text to buffer and scene graph
-            buffer.add(textToDisplay);
-            root.getChildren().add(textToDisplay);
-
-            int prevX = cursorX;
-            updateCursor(cursorX + textToDisplay.getLayoutBounds().getWidth(), cursorY);
-            if (cursorX > windowWidth - MARGIN) { // if at end of line, move cursor to new line and display Text there
-                newline();
-                textToDisplay.setX(cursorX);
-                textToDisplay.setY(cursorY);
-                updateCursor(cursorX + textToDisplay.getLayoutBounds().getWidth(), cursorY);
-            } else { // display Text normally and move cursor normally
-                textToDisplay.setX(prevX);
-                textToDisplay.setY(cursorY);
+    /**
+     * Notes when a key event arrived, its latency is recorded once the next pulse is laid out
+     * If more keys than fit come in before then, the last one takes the time of the newest
+     */
+    private void keyArrived() {
+        keyTimes[Math.min(pendingKeys, MAX_PENDING_KEYS - 1)] = System.nanoTime();
+        pendingKeys = Math.min(pendingKeys + 1, MAX_PENDING_KEYS);
+    }
+
+    /**
+     * Records the latency of every key event that arrived since the last pulse, called once
+     * the pulse is laid out, right before the frame showing their effect is rendered
+     */
+    private void keysShown() {
+        if (pendingKeys > 0) {
+            long now = System.nanoTime();
+            for (int i = 0; i < pendingKeys; i++) {
+                stats.recordKeyLatency(now - keyTimes[i]);
             }
-            setCursor(cursorX, cursorY);
-            reformat();
+            pendingKeys = 0;
+        }
+    }
+
+    /**
+     * Saves a snapshot of the buffer on the save thread, so editing can go on during the save
+     * Saves run one after the other, the last one to finish holds the latest snapshot
+     * A save never overwrites changes other programs made to the file that the snapshot is
+     * missing: they are looked for right before writing, and if there are any the save is
+     * dropped and they are reloaded instead. Only overwrite saves over them, see FileSaver.
+     */
+    private void save(final boolean overwrite) {
+        if (indexing) {
+            // Only part of the file is in the buffer yet, saving it would cut the file short
+            System.out.println("Unable to save " + file + " until it is fully loaded");
+            return;
+        }
+        if (partial) {
+            // Writing the chars that could be opened over the file would drop the rest of it
+            System.out.println("Unable to save " + file + ", only part of it is open");
+            return;
+        }
+        if (stale) {
+            // Its original chars are no longer read, the file can't be saved from them
+            System.out.println("Unable to save " + file + ", another program changed it, reopen it to edit it");
+            return;
         }
+        if (diverged && !overwrite) {
+            System.out.println("Not saving " + file + ", another program changed it where it has unsaved edits."
+                    + " Save with Shift to overwrite its changes");
+            return;
+        }
+        final PieceTable.Snapshot snapshot = buffer.snapshot();
+        final FileChannel savedOriginalBytes = changedOnDisk ? null : originalBytes;
+        final TextCodec savedCodec = codec;
+        final boolean savedMapped = mapped != null;
+        final File target = file;
+        final EditJournal savedJournal = journal;
+        final long mark = journal == null ? 0 : journal.mark();
+        final int savedEdits = localEdits.count();
+        final int seen = changesSeen;
+        if (overwrite) {
+            pendingOverwrites++;
+        }
+        saveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileChannel copiedFrom = savedOriginalBytes;
+                    if (savedMapped && (changesFound > seen || !unchangedSinceChecked(target))) {
+                        // The original chars are the bytes of the file as it is now, not as it was mapped
+                        System.out.println("Unable to save " + target + ", another program changed it, reopen it to edit it");
+                        checkMappedForChanges();
+                        return;
+                    }
+                    if (!overwrite && fingerprint == null && !FOLLOW) {
+                        System.out.println("Not saving " + target + ", it can't be checked for changes another"
+                                + " program made. Save with Shift to overwrite them");
+                        return;
+                    }
+                    if (!overwrite && (changesFound > seen || !unchangedSinceChecked(target))) {
+                        // Changed after the snapshot was taken, the changes are reloaded rather than lost
+                        System.out.println("Not saving " + target + ", another program changed it."
+                                + " Save again once its changes are reloaded, or with Shift to overwrite them");
+                        checkForChanges(savedCodec);
+                        return;
+                    }
+                    if (copiedFrom != null && !unchangedSinceChecked(target)) {
+                        // Changed after the last check, its bytes may no longer be the chars it was loaded as
+                        copiedFrom = null;
+                        Platform.runLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                changedOnDisk = true;
+                            }
+                        });
+                    }
+                    FileSaver saver = new FileSaver(savedCodec, copiedFrom);
+                    if (!savedMapped) {
+                        saver.fingerprint(originalFingerprint);
+                    }
+                    long start = System.nanoTime();
+                    long written = saver.save(snapshot, target);
+                    stats.recordSave(written, System.nanoTime() - start);
+                    if (savedJournal != null) {
+                        // The edits up to the snapshot are safe in the file now
+                        savedJournal.saved(mark, target.length(), target.lastModified());
+                    }
+                    // Taken on the save thread, so a check never mistakes the save for another program
+                    fingerprint = savedMapped ? FileFingerprint.stat(target, savedCodec) : saver.getFingerprint();
+                    Platform.runLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            saved(savedEdits);
+                        }
+                    });
+                } catch (IOException e) {
+                    System.out.println("Unable to write to file " + target);
+                } catch (InternalError e) {
+                    // A fault reading a mapped file truncated by another program, the file is left as it was
+                    System.out.println("Unable to write to file " + target + ", another program changed it while saving");
+                } finally {
+                    if (overwrite) {
+                        Platform.runLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                pendingOverwrites--;
+                            }
+                        });
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether target still is the file the fingerprint was taken of, on the save thread
+     * A followed file has no fingerprint, it is only appended to, which leaves its bytes alone.
+     * Any other file without one couldn't be checked, it may have changed.
+     */
+    private boolean unchangedSinceChecked(File target) {
+        return fingerprint != null ? fingerprint.matches(target) : FOLLOW;
     }
 
-    private void newline() {
-        updateCursor(STARTING_X, cursorY + textHeight);
-        lowerBoundY += textHeight;
+    /** Forgets the first savedEdits local edits, which are in the file now */
+    private void saved(int savedEdits) {
+        localEdits.saved(savedEdits);
+        diverged = false;
     }
 
-    private void updateCursor(double x, double y) {
-        cursorX = round(x);
-        cursorY = round(y);
+    /**
+     * Whether the buffer can be edited, a mapped file can't be until it is fully in the buffer
+     * and the edits its journal holds have been replayed, they apply to the whole file
+     * A mapped file that is only partly open, or that another program changed, is read only.
+     */
+    private boolean editable() {
+        return !indexing && !partial && !stale;
     }
 
-    private void setCursor(int x, int y) {
-        cursor.setX(x);
-        cursor.setY(y);
+    /** Queues a typed char, every char typed within a pulse is added as one edit */
+	private void add(String character) {
+        if (editable() && character.length() > 0 && character.charAt(0) != 8 && character.charAt(0) != 127) {
+            char c = character.charAt(0);
+            // Enter is typed as "\r", the buffer always stores newlines as '\n'
+            typed.append(c == '\r' ? '\n' : c);
+            pulseTimer.start();
+        }
     }
 
-    private void setCursorToClosest(double x) {
-        Text text = buffer.currText();
-        if (text == null) {
-            updateCursor(STARTING_X, STARTING_Y);
-        } else if (Math.abs(text.getX() - x) < Math.abs(text.getX() + text.getLayoutBounds().getWidth() - x)) {
-            updateCursor(text.getX(), text.getY());
-            buffer.prevCurr();
-        } else {
-            updateCursor(text.getX() + text.getLayoutBounds().getWidth(), text.getY());
+    /** Adds the chars typed since the last pulse to the buffer, a single edit and reflow */
+    private void flushTyped() {
+        if (typed.length() > 0) {
+            String text = typed.toString();
+            typed.setLength(0);
+            buffer.type(text);
+        }
+    }
+
+    /** Adds the text on the clipboard at the cursor as a single edit, however long it is */
+    private void paste() {
+        String text = Clipboard.getSystemClipboard().getString();
+        if (text != null && editable()) {
+            buffer.add(text.replace("\r\n", "\n").replace('\r', '\n'));
+        }
+    }
+
+    /**
+     * Moves the cursor to the position of buffer.curr on screen, scrolling just enough
+     * to keep it inside the window
+     */
+    private void updateCursor() {
+        int line = layout.lineOf(buffer.currOffset());
+        if (line < firstLine) {
+            firstLine = line;
+        } else if (line >= firstLine + visibleLines()) {
+            firstLine = line - visibleLines() + 1;
         }
-        setCursor(cursorX, cursorY);
+        render();
+    }
+
+    /** Renders the lines from firstLine on and moves the cursor to buffer.curr, even if it is out of view */
+    private void render() {
+        int offset = buffer.currOffset();
+        stats.recordRender(view.render(layout, firstLine, visibleLines()));
+
+        cursorX = round(STARTING_X + layout.xOf(offset));
+        cursorY = STARTING_Y + (layout.lineOf(offset) - firstLine) * textHeight;
+        cursor.setX(cursorX);
+        cursor.setY(cursorY);
+        showMatches();
+    }
+
+    /** Scrolls by lines, keeping the cursor where it is in the buffer */
+    private void scroll(int lines) {
+        firstLine = Math.max(0, Math.min(firstLine + lines, layout.lineCount() - 1));
+        stats.recordRender(view.render(layout, firstLine, visibleLines()));
+        cursorY = STARTING_Y + (layout.lineOf(buffer.currOffset()) - firstLine) * textHeight;
+        cursor.setY(cursorY);
+        showMatches();
+    }
+
+    /** Number of lines that fully fit in the window */
+    private int visibleLines() {
+        return Math.max(1, (windowHeight - STARTING_Y) / textHeight);
+    }
+
+    private void setCursorToClosest(int line, double x) {
+        buffer.setCurr(layout.offsetAt(line, x - STARTING_X));
+        updateCursor();
     }
 
     private int round(double x) {
         return (int) Math.rint(x);
     }
 
+    private double wrapWidth() {
+        return windowWidth - MARGIN - STARTING_X;
+    }
+
     /**
-     * Reformats all of the Text after the cursor
-     * Assumes that cursor is in correct position
+     * Rewraps only the lines touched by an edit and rematerializes the visible Text nodes
+     * Lines after the point where the new wrapping meets the old one are just shifted
+     * Chars of the file appended to the buffer aren't an edit at the cursor, the view stays
+     * where it is rather than scrolling back to the cursor.
      */
-    private void reformat() {
-        int X = cursorX;
-        int Y = cursorY;
-        Text textToBeMoved = null;
-        while (buffer.hasNextTrav()) {
-            // When reformatting, this condition is necessary to ensure that a new line isn't created
-            // if "\r" is the first Text obj in the editor
-            if (buffer.currText() == null && buffer.nextText().getText().equals("\r")) {
-                buffer.nextCurr();
-            } else {
-                textToBeMoved = buffer.nextTrav();
-                if (X + textToBeMoved.getLayoutBounds().getWidth() > windowWidth - MARGIN
-                        || textToBeMoved.getText().equals("\r")) {
-                    X = STARTING_X;
-                    Y += textHeight;
-                }
-                textToBeMoved.setX(X);
-                textToBeMoved.setY(Y);
-                X = round(X + textToBeMoved.getLayoutBounds().getWidth());
+    private void reformat(int offset, int removed, int inserted) {
+        layout.update(offset, removed, inserted);
+        view.invalidate();
+        if (appending) {
+            render();
+        } else {
+            updateCursor();
+        }
+    }
+
+    /**
+     * Rewraps the whole buffer at the width of the window
+     * The lines are wrapped in parallel on the common fork join pool against a snapshot, while
+     * the old wrapping stays in place and keeps following edits. The new line starts are swapped
+     * in at once on the FX thread, then the chars edited in the meantime are rewrapped as a
+     * single edit, so typing never holds the rewrap back. Only a change of width starts it over.
+     */
+    private void reformatFromBeginning() {
+        if (!layout.isWrapping()) {
+            layout.setWrapWidth(wrapWidth());
+            view.invalidate();
+            updateCursor();
+            return;
+        }
+        if (rewrapping) {
+            return; // the rewrap in flight starts over if it ends up stale
+        }
+        rewrapping = true;
+        rewrapEditStart = -1;
+        rewrapEditDelta = 0;
+        final double width = wrapWidth();
+        final PieceTable.Snapshot snapshot = buffer.snapshot();
+        final int[] paragraphStarts = layout.paragraphStarts(WRAP_CHUNKS);
+        ForkJoinPool.commonPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                final int[] lineStarts = layout.wrap(snapshot, paragraphStarts, width);
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        rewrapping = false;
+                        if (width != wrapWidth()) {
+                            reformatFromBeginning();
+                            return;
+                        }
+                        layout.setLineStarts(lineStarts, width, snapshot.length());
+                        if (rewrapEditStart >= 0) {
+                            int edited = rewrapEditEnd - rewrapEditStart;
+                            layout.update(rewrapEditStart, edited - rewrapEditDelta, edited);
+                        }
+                        view.invalidate();
+                        updateCursor();
+                    }
+                });
+            }
+        });
+    }
+
+    /** Widens the range of chars edited since the rewrap in flight began to cover an edit */
+    private void editedWhileRewrapping(int offset, int removed, int inserted) {
+        if (rewrapEditStart < 0) {
+            rewrapEditStart = offset;
+            rewrapEditEnd = offset + inserted;
+        } else {
+            // The end of the range moves along with the chars after the edit
+            rewrapEditEnd = Math.max(rewrapEditEnd, offset + removed) + inserted - removed;
+            rewrapEditStart = Math.min(rewrapEditStart, offset);
+        }
+        rewrapEditDelta += inserted - removed;
+    }
+
+    /**
+     * Runs once on the next pulse after being started: adds the chars typed since the last
+     * pulse and rewraps if the width changed, however many events came in before it
+     */
+    private class PulseTimer extends AnimationTimer {
+        @Override
+        public void handle(long now) {
+            stop();
+            flushTyped();
+            if (widthChanged) {
+                widthChanged = false;
+                reformatFromBeginning();
             }
         }
+    }
+
+
 
-        if (textToBeMoved != null) {
-            lowerBoundY = (int) textToBeMoved.getY();
+
+    /************************************************
+     * Find bar, searching as the query is typed *
+     * Replace bar, replacing every regex match   *
+     ***********************************************/
+
+
+    private void setFinding(boolean finding) {
+        if (finding && replacing) {
+            setReplacing(false);
         }
+        this.finding = finding;
+        if (finding) {
+            findOrigin = buffer.currOffset();
+        } else {
+            query.setLength(0);
+            startSearch(false);
+        }
+        findBar.setVisible(finding);
+        showMatches();
+    }
 
-        buffer.resetTrav(); // reset traversal pointer
+    private void setReplacing(boolean replacing) {
+        if (replacing && finding) {
+            setFinding(false);
+        }
+        this.replacing = replacing;
+        editingReplacement = false;
+        query.setLength(0);
+        replacement.setLength(0);
+        replaceStatus = "";
+        findBar.setVisible(replacing);
+        showMatches();
     }
 
-    private void reformatFromBeginning() {
-        cursorX = STARTING_X;
-        cursorY = STARTING_Y;
+    private void addToReplace(String character) {
+        if (character.length() > 0 && character.charAt(0) >= ' ' && character.charAt(0) != 127) {
+            (editingReplacement ? replacement : query).append(character);
+            showMatches();
+        }
+    }
+
+    /**
+     * Replaces every match of the regex in query by replacement, as one edit that a single
+     * undo reverts, see TextBuffer.replaceAll
+     */
+    private void replaceAll() {
+        if (!editable()) {
+            return;
+        }
+        try {
+            int count = buffer.replaceAll(Pattern.compile(query.toString()), replacement.toString());
+            replaceStatus = count + " replaced";
+        } catch (PatternSyntaxException e) {
+            replaceStatus = "invalid pattern";
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            replaceStatus = "invalid replacement"; // such as a reference to a missing group
+        }
+        showMatches();
+    }
+
+    private void addToQuery(String character) {
+        if (character.length() > 0 && character.charAt(0) >= ' ' && character.charAt(0) != 127) {
+            query.append(character);
+            startSearch(true);
+        }
+    }
+
+    /**
+     * Cancels the search in flight and looks for query in a snapshot of the buffer on the
+     * search thread, the matches in the viewport are highlighted right away from the buffer.
+     * If jump is set the cursor moves to the first match after findOrigin once it is found.
+     */
+    private void startSearch(final boolean jump) {
+        if (searchTask != null) {
+            searchTask.cancel(true);
+        }
+        final int searchId = ++searches;
+        matches = new int[0];
+        currentMatch = -1;
+        search = query.length() == 0 ? null : new TextSearch(query.toString());
+        if (search != null) {
+            final TextSearch running = search;
+            final PieceTable.Snapshot snapshot = buffer.snapshot();
+            searchTask = searchExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final int[] found = running.findAll(snapshot);
+                    if (found == null) {
+                        return; // cancelled
+                    }
+                    Platform.runLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (searchId == searches) {
+                                matches = found;
+                                if (jump) {
+                                    jumpTo(nextMatchAfter(findOrigin - 1, true));
+                                }
+                                showMatches();
+                            }
+                        }
+                    });
+                }
+            });
+        }
+        showMatches();
+    }
+
+    /** Moves the cursor to the match after, or before, the current one, wrapping around */
+    private void nextMatch(boolean forward) {
+        int from = currentMatch >= 0 ? matches[currentMatch] : buffer.currOffset() - (forward ? 1 : 0);
+        jumpTo(nextMatchAfter(from, forward));
+    }
+
+    /** Returns the index of the first match starting after from, or before it, -1 if none */
+    private int nextMatchAfter(int from, boolean forward) {
+        if (matches.length == 0) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(matches, from);
+        if (forward) {
+            i = i >= 0 ? i + 1 : -i - 1;
+            return i < matches.length ? i : 0;
+        }
+        i = i >= 0 ? i - 1 : -i - 2;
+        return i >= 0 ? i : matches.length - 1;
+    }
+
+    /** Puts the cursor at the end of the index-th match */
+    private void jumpTo(int index) {
+        if (index >= 0) {
+            currentMatch = index;
+            buffer.setCurr(matches[index] + search.getPattern().length());
+            updateCursor();
+        }
+    }
+
+    /**
+     * Highlights the matches in the viewport, found with the buffer itself since only the
+     * few lines on screen are searched, and updates the find bar
+     */
+    private void showMatches() {
+        highlights.getChildren().clear();
+        findBar.setY(Math.max(0, windowHeight - textHeight - MARGIN));
+        findBar.setX(STARTING_X);
+        if (replacing) {
+            findBar.setText("Replace: " + query + (editingReplacement ? "" : "|")
+                    + "   with: " + replacement + (editingReplacement ? "|" : "") + "   " + replaceStatus);
+        } else {
+            findBar.setText("Find: " + query + (search == null ? ""
+                    : "   " + (currentMatch + 1) + "/" + matches.length));
+        }
+        if (search == null) {
+            return;
+        }
+        int lastLine = Math.min(firstLine + visibleLines(), layout.lineCount() - 1);
+        int start = layout.lineStart(firstLine);
+        int end = lastLine == layout.lineCount() - 1 ? buffer.length() : layout.lineStart(lastLine + 1);
+        int length = search.getPattern().length();
+        int current = currentMatch >= 0 ? matches[currentMatch] : -1;
+        for (int i = search.indexOf(buffer, start, Math.min(buffer.length(), end + length - 1)); i >= 0;
+                i = search.indexOf(buffer, i + 1, Math.min(buffer.length(), end + length - 1))) {
+            highlight(i, i + length, i == current ? Color.ORANGE : Color.YELLOW);
+        }
+    }
+
+    /** Draws a box behind the chars in [start, end), one per visual line they span */
+    private void highlight(int start, int end, Color color) {
+        while (start < end) {
+            int line = layout.lineOf(start);
+            int lineStart = layout.lineStart(line);
+            int lineEnd = line == layout.lineCount() - 1 ? buffer.length() : layout.lineStart(line + 1);
+            int stop = Math.min(end, lineEnd);
+            int count = layout.positionGlyphs(line);
+            if (start - lineStart <= count) {
+                double[] glyphX = layout.getGlyphX();
+                double left = glyphX[start - lineStart];
+                double right = glyphX[Math.min(stop - lineStart, count)];
+                Rectangle box = new Rectangle(STARTING_X + left,
+                        STARTING_Y + (line - firstLine) * textHeight, right - left, textHeight);
+                box.setFill(color);
+                highlights.getChildren().add(box);
+            }
+            start = stop;
+        }
+    }
+
+
 
-        buffer.currToSentinel(); // by moving curr to sentinel, trav is also set to point at sentinel
-        reformat();
-        buffer.resetCurr();
 
-        // Update and set cursor dynamically according to the Text obj it was adjacent to before reformatting
-        Text text = buffer.currText();
-        updateCursor(text.getX() + text.getLayoutBounds().getWidth(), text.getY());
-        setCursor(cursorX, cursorY);
+    /************************************************
+     * Listener for following edits to TextBuffer *
+     ***********************************************/
+
+
+    private class BufferChangeHandler implements TextBufferListener {
+        @Override
+        public void textChanged(int offset, int removed, int inserted) {
+            if (rewrapping) {
+                editedWhileRewrapping(offset, removed, inserted);
+            }
+            if (!appending && !reloading) {
+                localEdits.add(offset, removed, inserted);
+            }
+            if (journal != null && !appending && !reloading) {
+                journal.record(offset, removed, buffer, inserted);
+            }
+            if (search != null) {
+                startSearch(false); // offsets of the matches are stale
+            }
+            reformat(offset, removed, inserted);
+        }
     }
 
 
@@ -394,76 +920,84 @@ public class Editor extends Application {
     private class MouseClickHandler implements EventHandler<MouseEvent> {
         @Override
         public void handle(MouseEvent mouseEvent) {
+            flushTyped();
             double mousePressedX = mouseEvent.getX();
             double mousePressedY = mouseEvent.getY();
 
-            int targetY = roundToLowestY(mousePressedY);
+            // If mouse click is below the last line, set cursor on the last line
+            int line = firstLine + (int) Math.floor((mousePressedY - STARTING_Y) / textHeight);
+            line = Math.max(0, Math.min(line, layout.lineCount() - 1));
+            setCursorToClosest(line, mousePressedX);
+        }
+    }
 
-            // If mouse click is below the lowest Y, set cursor to last Text object
-            if (targetY > lowerBoundY) {
-                if (buffer.currText() == null) {
-                    if (buffer.nextText() != null) {
-                        buffer.nextCurr();
-                    } else {
-                        return;
-                    }
-                }
 
-                while (buffer.nextText() != null) {
-                    buffer.nextCurr();
-                }
 
-                Text text = buffer.currText();
-                updateCursor(text.getX() + text.getLayoutBounds().getWidth(), text.getY());
-                setCursor(cursorX, cursorY);
-            } else {
-                if (cursorY < targetY) {
-                    if (buffer.currText() == null) {
-                        if (buffer.nextText() != null) {
-                            buffer.nextCurr();
-                        } else {
-                            return;
-                        }
-                    }
-                    while (buffer.currText() != null && buffer.currText().getY() < targetY) {
-                        buffer.nextCurr();
-                    }
-                } else if (cursorY > targetY) {
-                    while (buffer.currText() != null && buffer.currText().getY() > targetY) {
-                        buffer.prevCurr();
-                    }
-                }
 
-                if (buffer.currText() == null) {
-                    if (buffer.nextText() != null) {
-                        buffer.nextCurr();
-                    } else {
-                        return;
-                    }
-                }
-                if (buffer.currText().getX() > mousePressedX) {
-                    while (buffer.currText() != null && buffer.currText().getX() > mousePressedX
-                            && buffer.currText().getY() == targetY) {
-                        buffer.prevCurr();
-                    }
-                } else if (buffer.currText().getX() < mousePressedX) {
-                    while (buffer.nextText() != null && buffer.nextText().getX() < mousePressedX
-                            && buffer.nextText().getY() == targetY) {
-                        buffer.nextCurr();
-                    }
-                }
-                setCursorToClosest(mousePressedX);
-            }
-        }
+    /***************************************************
+     * Event Handler for scrolling with the mouse wheel *
+     ***************************************************/
+
 
-        private int roundToLowestY(double Y) {
-            return textHeight * (int) Math.floor(Y / textHeight);
+    private class ScrollHandler implements EventHandler<ScrollEvent> {
+        @Override
+        public void handle(ScrollEvent scrollEvent) {
+            int lines = (int) Math.round(-scrollEvent.getDeltaY() / textHeight);
+            if (lines != 0) {
+                scroll(lines);
+            }
         }
     }
 
 
     @Override
     public void start(Stage stage) {
+        // Read in File if it exists
+        List<String> params = getParameters().getRaw();
+        if (params.size()!= 1) {
+            System.out.println("Expected Usage: Editor <filename>");
+            System.exit(1);
+        }
+        String fileName = params.get(0);
+
+        long loadStart = System.nanoTime();
+        try {
+            file = new File(fileName);
+            if (!file.exists()) {
+                file.createNewFile();
+                openDocument(new char[0], TextCodec.DEFAULT);
+                recover();
+                follow(0);
+                watch(new byte[0], file.lastModified());
+            } else if (file.length() > LAZY_LOAD_THRESHOLD) {
+                openMapped(file); // recovers, follows and watches once the whole file is in the buffer
+            } else {
+                // Read through the channel kept to copy from, so both are the same file even if it is replaced meanwhile
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                long modified = file.lastModified(); // before reading, a change while reading is then caught
+                byte[] bytes = readAll(channel);
+                TextCodec.Decoded text = TextCodec.decode(bytes);
+                openDocument(text.chars, text.codec);
+                // Unedited text can be copied on save if its bytes are its chars
+                if (text.codec.isOneBytePerChar(bytes.length, text.chars.length)) {
+                    originalBytes = channel;
+                } else {
+                    channel.close();
+                }
+                recover();
+                follow(bytes.length);
+                watch(bytes, modified);
+            }
+        } catch (FileNotFoundException e) {
+            System.out.println("Unable to open file " + fileName);
+            return;
+        } catch (IOException e) {
+            System.out.println("Unable to read file " + fileName);
+            return;
+        }
+        stats.recordLoad(System.nanoTime() - loadStart); // for a mapped file, until the first screen can show
+        stats.register();
+
         root = new Group();
         Scene scene = new Scene(root, STARTING_WINDOW_WIDTH, STARTING_WINDOW_HEIGHT);
 
@@ -476,6 +1010,9 @@ public class Editor extends Application {
         imageView.setX(STARTING_X);
         imageView.setY(STARTING_Y);
         root.getChildren().add(imageView);
+        root.getChildren().add(highlights);
+        root.getChildren().add(view.getNode());
+        view.setSize(STARTING_WINDOW_WIDTH, STARTING_WINDOW_HEIGHT);
 
         // Add listeners to detect when window size changes
         scene.widthProperty().addListener(new ChangeListener<Number>() {
@@ -486,7 +1023,9 @@ public class Editor extends Application {
                     windowWidth = newScreenWidth.intValue();
                     int newImageWidth = windowWidth - 2 * MARGIN;
                     imageView.setFitWidth(newImageWidth);
-                    reformatFromBeginning(); // only need to reformat when width is adjusted
+                    view.setSize(windowWidth, windowHeight);
+                    widthChanged = true; // only need to reformat when width is adjusted, once per pulse
+                    pulseTimer.start();
                 }
         });
         scene.heightProperty().addListener(new ChangeListener<Number>() {
@@ -497,65 +1036,389 @@ public class Editor extends Application {
                     windowHeight = newScreenHeight.intValue();
                     int newImageHeight = windowHeight;
                     imageView.setFitHeight(newImageHeight);
+                    view.setSize(windowWidth, windowHeight);
+                    updateCursor(); // more or fewer lines now fit in the window
                 }
         });
 
         // Add blinking cursor to screen
         root.getChildren().add(cursor);
         makeCursorBlink();
+        root.getChildren().add(findBar);
 
-        // Add mouse click
+        // Add mouse click and mouse wheel
         scene.setOnMouseClicked(new MouseClickHandler());
+        scene.setOnScroll(new ScrollHandler());
 
 		// Once KeyEventHandler object is instantiated, it calls on the handle method
 		// to handle the KeyEvent every time a key is pressed/typed
 		EventHandler<KeyEvent> keyEventHandler = new KeyEventHandler();
 		scene.setOnKeyTyped(keyEventHandler);
 		scene.setOnKeyPressed(keyEventHandler);
+        scene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {
+                keysShown();
+            }
+        });
 
-		// Read in File if it exists
-        List<String> params = getParameters().getRaw();
-        if (params.size()!= 1) {
-            System.out.println("Expected Usage: Editor <filename>");
-            System.exit(1);
+        updateCursor();
+
+        stage.setTitle(fileName);
+        stage.setScene(scene);
+        stage.show();
+    }
+
+    /**
+     * Creates the buffer, layout and view for text in one go
+     * Layout wraps the whole text in a single pass instead of once per char
+     */
+    private void openDocument(char[] text, TextCodec codec) {
+        buffer = new TextBuffer(text);
+        layout = new Layout(buffer, metrics, wrapWidth());
+        view = createView();
+        buffer.addListener(new BufferChangeHandler());
+        this.codec = codec;
+    }
+
+    /** Creates the renderer chosen with the editor.renderer property for buffer */
+    private Renderer createView() {
+        if (RENDERER.equals("canvas")) {
+            return new CanvasView(buffer, font, STARTING_X, STARTING_Y, textHeight);
+        } else if (RENDERER.equals("line")) {
+            return new LineView(buffer, font, STARTING_X, STARTING_Y, textHeight);
+        } else if (!RENDERER.equals("text")) {
+            System.out.println("Unknown renderer " + RENDERER + ", using text");
         }
-        String fileName = params.get(0);
+        return new TextView(buffer, font, STARTING_X, STARTING_Y, textHeight);
+    }
+
+    /**
+     * Opens a file too large to read eagerly: its bytes are mapped and the buffer starts out
+     * empty, a background thread finds the newlines chunk by chunk and appends each chunk to
+     * the buffer on the FX thread. Lines aren't wrapped, so only the lines in the viewport
+     * are ever measured. Editing and saving wait for the last chunk and the replay of the
+     * journal, whose edits apply to the whole file, saving earlier would cut the file short.
+     * A file longer than MappedText.MAX_LENGTH is cut short for good, it is only shown:
+     * it has no journal, isn't followed, and can't be edited or saved.
+     */
+    private void openMapped(File file) throws IOException {
+        MappedText text = new MappedText(file);
+        if (text.length() < file.length()) {
+            System.out.println("Only the first " + text.length() + " bytes of " + file + " can be opened,"
+                    + " it is read only");
+            partial = true;
+        }
+        buffer = new TextBuffer(text, 0);
+        layout = new Layout(buffer, metrics, wrapWidth(), false);
+        view = createView();
+        buffer.addListener(new BufferChangeHandler());
+        codec = new TextCodec(StandardCharsets.ISO_8859_1, false, "\n"); // bytes are chars, see MappedText
+        originalBytes = text.channel();
+        mapped = text;
+        indexing = true;
+
+        Thread indexer = new Thread(new NewlineIndexer(text), "newline-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
 
+    /**
+     * Replays the edits the journal of file holds over the buffer, left unsaved by the last
+     * session, then starts journaling the edits of this one
+     */
+    private void recover() {
+        long length = file.length();
+        long modified = file.lastModified();
+        EditJournal recovered = new EditJournal(EditJournal.journalFileFor(file));
         try {
-            file = new File(fileName);
-            if (!file.exists()) {
-                file.createNewFile();
-            } else {
-                FileReader reader = new FileReader(fileName);
-                BufferedReader bufferedReader = new BufferedReader(reader);
-
-                int intRead = -1;
-                while ((intRead = bufferedReader.read()) != -1) {
-                    char charRead = (char) intRead;
-                    if (charRead == '\n') {
-                        add("\r");
+            int replayed = recovered.replay(buffer, length, modified);
+            if (replayed > 0) {
+                System.out.println("Recovered " + replayed + " unsaved edits of " + file);
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to read the journal of " + file);
+        }
+        recovered.open(length, modified);
+        journal = recovered;
+    }
+
+    /**
+     * Starts following the file if the editor.follow property is set: the bytes written to it
+     * past position are added to the end of the buffer as they come, see FileFollower
+     */
+    private void follow(long position) {
+        if (FOLLOW) {
+            follower = new FileFollower(file, position, codec, new Runnable() {
+                @Override
+                public void run() {
+                    Platform.runLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            appendFollowed();
+                        }
+                    });
+                }
+            });
+            follower.start();
+        }
+    }
+
+    /**
+     * Adds what was written to the followed file since the last call to the end of the buffer
+     * Only the new lines are laid out. If the last line was in view it still is afterwards,
+     * and the cursor moves along if it was at the end.
+     */
+    private void appendFollowed() {
+        String text = follower.take();
+        if (text.isEmpty()) {
+            return;
+        }
+        boolean atEnd = firstLine + visibleLines() >= layout.lineCount() - 1;
+        appending = true; // chars of the file itself, not edits to journal or undo
+        buffer.append(text);
+        appending = false;
+        if (journal != null) {
+            journal.rebase(follower.takenLength(), follower.takenModified()); // its edits apply to the longer file
+        }
+        if (atEnd) {
+            scroll(Math.max(0, layout.lineCount() - visibleLines()) - firstLine);
+        }
+    }
+
+    /**
+     * Checks every CHECK_INTERVAL ms whether another program changed the file, on the save
+     * thread so that checks and saves never overlap. bytes are the contents of the file as
+     * it was read, last modified at modified, or null if the file has to be read again.
+     * Not needed when following the file, what is appended to it is already added.
+     */
+    private void watch(final byte[] bytes, final long modified) {
+        if (FOLLOW) {
+            return;
+        }
+        final TextCodec watchedCodec = codec;
+        final boolean watchedMapped = mapped != null;
+        saveExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (watchedMapped) {
+                        fingerprint = FileFingerprint.stat(file, watchedCodec);
                     } else {
-                        add(Character.toString(charRead));
+                        fingerprint = bytes != null ? FileFingerprint.of(bytes, modified, watchedCodec)
+                                : FileFingerprint.read(file, watchedCodec);
+                        originalFingerprint = bytes != null ? fingerprint : null;
                     }
+                } catch (IOException e) {
+                    System.out.println("Unable to read file " + file);
                 }
-                bufferedReader.close();
-                buffer.currToSentinel();
-                updateCursor(STARTING_X, STARTING_Y);
-                setCursor(cursorX, cursorY);
-                reformat();
             }
-        } catch (FileNotFoundException e) {
-            System.out.println("Unable to open file " + fileName);
+        });
+        saveExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (watchedMapped) {
+                    checkMappedForChanges();
+                } else {
+                    checkForChanges(watchedCodec);
+                }
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Compares the file with its fingerprint if its length or last modified time changed, and
+     * hands the chars of the chunks that changed over to the FX thread, on the save thread
+     * Only the changed chunks are decoded, but the whole file is read to find them.
+     */
+    private void checkForChanges(TextCodec codec) {
+        if (fingerprint == null || !file.exists() || fingerprint.matches(file)) {
             return;
+        }
+        try {
+            FileFingerprint newer = FileFingerprint.read(file, codec);
+            final FileFingerprint.Change change = fingerprint.diff(newer);
+            if (change == null) {
+                fingerprint = newer; // touched but not changed
+                return;
+            }
+            final char[] chars = readChanged(change, codec);
+            if (!newer.matches(file)) {
+                return; // still being written to, the next check compares again
+            }
+            fingerprint = newer;
+            changesFound++;
+            final long length = newer.getLength();
+            final long modified = newer.getModified();
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    reload(change, chars, length, modified);
+                }
+            });
         } catch (IOException e) {
-            System.out.println("Unable to read file " + fileName);
+            System.out.println("Unable to check file " + file + " for changes until it is saved");
+            fingerprint = null;
+        }
+    }
+
+    /**
+     * Tells whether another program changed a mapped file, on the save thread. Its original
+     * chars are read straight from the mapping, which a change made in place alters under the
+     * buffer, so no part of it is reloaded: the mapping is detached and the buffer is read only
+     * until the file is reopened. Checks stop, there is nothing left to compare.
+     */
+    private void checkMappedForChanges() {
+        if (fingerprint == null || !file.exists() || fingerprint.matches(file)) {
             return;
         }
+        fingerprint = null;
+        changesFound++;
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                changesSeen++;
+                changedOnDisk = true;
+                stale = true;
+                mapped.detach();
+                view.invalidate();
+                updateCursor();
+                System.out.println(file + " was changed by another program, reopen it to see the changes,"
+                        + " its unsaved edits can't be saved");
+            }
+        });
+    }
 
+    /** Returns every byte of channel, up to its size when it is called */
+    private static byte[] readAll(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+        while (bytes.hasRemaining() && channel.read(bytes, bytes.position()) > 0) {
+            // Keeps reading until the end of the file
+        }
+        return bytes.hasRemaining() ? Arrays.copyOf(bytes.array(), bytes.position()) : bytes.array();
+    }
 
-        stage.setTitle(fileName);
-        stage.setScene(scene);
-        stage.show();
+    /** Reads and decodes the bytes change put in the file */
+    private char[] readChanged(FileFingerprint.Change change, TextCodec codec) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) (change.newEnd - change.newStart));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (bytes.hasRemaining() && channel.read(bytes, change.newStart + bytes.position()) > 0) {
+                // Keeps reading until the end of the change
+            }
+        }
+        return codec.decode(bytes.array(), 0, bytes.position());
+    }
+
+    /**
+     * Replaces the chars another program changed in the file by chars, the file then having
+     * length bytes and been last modified at modified, as one edit that can be undone
+     * Local edits made since the last save are kept: those before the change as they are,
+     * those after it shifted. If one overlaps the change, the buffer is left as it is, and so
+     * is it while a save over the changes of others is in flight, which writes over this one.
+     * The checks and saves run in order on the save thread, so the change is always relative
+     * to the last save that finished. Any other save in flight is dropped, see save.
+     */
+    private void reload(FileFingerprint.Change change, char[] chars, long length, long modified) {
+        changesSeen++;
+        flushTyped(); // typed chars are local edits too
+        if (pendingOverwrites > 0) {
+            System.out.println("Not reloading the changes another program made to " + file + ", the save in flight overwrites them");
+            return;
+        }
+        if (diverged) {
+            System.out.println(file + " was changed again by another program, save with Shift to overwrite its changes");
+            return;
+        }
+        changedOnDisk = true;
+        int[] range = localEdits.map(change.oldStart, change.oldEnd, buffer.length());
+        if (range == null) {
+            diverged = true;
+            System.out.println("Not reloading " + file + ", another program changed it where it has unsaved edits,"
+                    + " save with Shift to overwrite its changes");
+            return;
+        }
+        int start = range[0];
+        int end = range[1];
+        int delta = chars.length - (end - start);
+        // The local edits after the change are now edits to the file with the change
+        localEdits.rebase(change.oldStart, delta);
+        reloading = true;
+        buffer.replace(start, end - start, CharBuffer.wrap(chars));
+        reloading = false;
+        if (journal != null) {
+            // The journal now applies to the reloaded file: its records are dropped, and the local
+            // edits recorded again as a single edit to it, read back from the buffer
+            journal.saved(journal.mark(), length, modified);
+            int[] span = localEdits.span(buffer.length());
+            if (span != null) {
+                journal.record(span[0], span[1] - span[0], buffer, span[2] - span[0]);
+            }
+        }
+        System.out.println("Reloaded the changes another program made to " + file);
+    }
+
+    /** Scans a MappedText for newlines off the FX thread, handing over one chunk at a time */
+    private class NewlineIndexer implements Runnable {
+        private final MappedText text;
+
+        NewlineIndexer(MappedText text) {
+            this.text = text;
+        }
+
+        @Override
+        public void run() {
+            for (int start = 0; start < text.length(); start += INDEX_CHUNK_SIZE) {
+                final int end = (int) Math.min((long) start + INDEX_CHUNK_SIZE, text.length());
+                final int[] newlines = text.newlinesIn(start, end);
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        appending = true; // chars of the file itself, not edits to journal
+                        buffer.appendOriginal(end, newlines);
+                        appending = false;
+                    }
+                });
+            }
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (!partial) {
+                        recover();
+                        follow(text.length());
+                    }
+                    indexing = false; // journaled from here on
+                    watch(null, 0);
+                }
+            });
+        }
+    }
+
+    /** Lets a save in flight finish, then ends the save and journal threads so the JVM can exit */
+    @Override
+    public void stop() {
+        if (follower != null) {
+            follower.stop();
+        }
+        searchExecutor.shutdownNow();
+        saveExecutor.shutdown();
+        try {
+            saveExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (originalBytes != null) {
+                originalBytes.close();
+            }
+        } catch (InterruptedException | IOException e) {
+            System.out.println("Unable to close " + file);
+        }
+        if (journal != null) {
+            journal.close(); // after the saves, which drop what they saved from the journal
+        }
+        if (STATS_FILE != null) {
+            try {
+                stats.dump(new File(STATS_FILE));
+            } catch (IOException e) {
+                System.out.println("Unable to write stats to " + STATS_FILE);
+            }
+        }
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * EditorStats class records how long the Editor takes to respond, for monitoring in the field
+ *
+ * 	keyLatency: nanoseconds from a KeyEvent arriving to the end of the layout pass of the next
+ * 		pulse, right before the frame showing its effect is rendered
+ * 	nodesTouched: number of Text nodes each render of TextView updated
+ * 	bytesSaved, lastSaveNanos: output of the saves so far
+ * 	loadNanos: time it took to read the file and build the document
+ * 	renderer: name of the Renderer, so that runs with different ones can be told apart
+ *
+ * Recording never allocates. Registered as an MBean under OBJECT_NAME so that the numbers
+ * can be watched with any JMX client, and written to a file on exit with dump.
+ */
+public class EditorStats implements EditorStatsMBean {
+    public static final String OBJECT_NAME = "texteditor:type=EditorStats";
+
+    private final String renderer;
+    private final Histogram keyLatency;
+    private final Histogram nodesTouched;
+    private long saves;
+    private long bytesSaved;
+    private long lastSaveNanos;
+    private volatile long loadNanos;
+
+    public EditorStats(String renderer) {
+        this.renderer = renderer;
+        keyLatency = new Histogram();
+        nodesTouched = new Histogram();
+    }
+
+    /** Registers these stats with the platform MBean server, failing only prints a message */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.out.println("Unable to register " + OBJECT_NAME);
+        }
+    }
+
+    public void recordKeyLatency(long nanos) {
+        keyLatency.record(nanos);
+    }
+
+    public void recordRender(int nodes) {
+        nodesTouched.record(nodes);
+    }
+
+    public synchronized void recordSave(long bytes, long nanos) {
+        saves++;
+        bytesSaved += bytes;
+        lastSaveNanos = nanos;
+    }
+
+    public void recordLoad(long nanos) {
+        loadNanos = nanos;
+    }
+
+    @Override
+    public String getRenderer() {
+        return renderer;
+    }
+
+    @Override
+    public long getKeystrokes() {
+        return keyLatency.count();
+    }
+
+    @Override
+    public double getKeyLatencyP50() {
+        return keyLatency.percentile(0.5) / 1e6;
+    }
+
+    @Override
+    public double getKeyLatencyP99() {
+        return keyLatency.percentile(0.99) / 1e6;
+    }
+
+    @Override
+    public double getKeyLatencyMax() {
+        return keyLatency.max() / 1e6;
+    }
+
+    @Override
+    public long getRenders() {
+        return nodesTouched.count();
+    }
+
+    @Override
+    public long getNodesTouched() {
+        return nodesTouched.total();
+    }
+
+    @Override
+    public long getNodesTouchedP99() {
+        return nodesTouched.percentile(0.99);
+    }
+
+    @Override
+    public long getNodesTouchedMax() {
+        return nodesTouched.max();
+    }
+
+    @Override
+    public synchronized long getSaves() {
+        return saves;
+    }
+
+    @Override
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    @Override
+    public synchronized double getLastSaveTime() {
+        return lastSaveNanos / 1e6;
+    }
+
+    @Override
+    public double getLoadTime() {
+        return loadNanos / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        keyLatency.reset();
+        nodesTouched.reset();
+        synchronized (this) {
+            saves = 0;
+            bytesSaved = 0;
+            lastSaveNanos = 0;
+        }
+    }
+
+    /** Writes every stat to file, one "name value" pair per line */
+    public void dump(File file) throws IOException {
+        try (Writer out = new FileWriter(file)) {
+            out.write("renderer " + getRenderer() + "\n");
+            out.write("loadTime " + getLoadTime() + "\n");
+            out.write("keystrokes " + getKeystrokes() + "\n");
+            out.write("keyLatencyP50 " + getKeyLatencyP50() + "\n");
+            out.write("keyLatencyP99 " + getKeyLatencyP99() + "\n");
+            out.write("keyLatencyMax " + getKeyLatencyMax() + "\n");
+            out.write("renders " + getRenders() + "\n");
+            out.write("nodesTouched " + getNodesTouched() + "\n");
+            out.write("nodesTouchedP99 " + getNodesTouchedP99() + "\n");
+            out.write("nodesTouchedMax " + getNodesTouchedMax() + "\n");
+            out.write("saves " + getSaves() + "\n");
+            out.write("bytesSaved " + getBytesSaved() + "\n");
+            out.write("lastSaveTime " + getLastSaveTime() + "\n");
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * EditorStatsMBean interface is what EditorStats exposes over JMX, times in milliseconds
+ */
+public interface EditorStatsMBean {
+    /** Name of the Renderer the numbers were measured with */
+    String getRenderer();
+
+    long getKeystrokes();
+
+    double getKeyLatencyP50();
+
+    double getKeyLatencyP99();
+
+    double getKeyLatencyMax();
+
+    long getRenders();
+
+    long getNodesTouched();
+
+    long getNodesTouchedP99();
+
+    long getNodesTouchedMax();
+
+    long getSaves();
+
+    long getBytesSaved();
+
+    double getLastSaveTime();
+
+    double getLoadTime();
+
+    /** Forgets every keystroke, render and save recorded so far */
+    void reset();
+}
@@ -0,0 +1,418 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+/**
+ * FileFingerprint class is a summary of the contents of a file on disk, to tell whether and
+ * where another program changed it without keeping a copy of it
+ *
+ * 	length, modified: length and last modified time of the file, a cheap test for a change
+ * 	start: number of bytes before the first chunk, those of the byte order mark
+ * 	hashed: whether the chunks were hashed at all, see stat
+ * 	malformed: whether the bytes of a UTF-8 file aren't well formed, see diff
+ * 	added: number of bytes of a file being written hashed so far, see writing
+ * 	hashes, byteLengths, charLengths: CRC32C, number of bytes and number of chars of the
+ * 		buffer of every chunk, count of them
+ *
+ * Chunks are content defined: a chunk ends at the first line feed after the gear hash of the
+ * last bytes hits BOUNDARY_MASK, at least MIN_CHUNK bytes in. A change only moves the chunk
+ * boundaries next to it, so the chunks before and after it hash the same as before and
+ * comparing two fingerprints gives the bytes that changed, however far they moved.
+ *
+ * Every chunk starts from the same state, so the chunks of a file that are copied whole into
+ * another are chunks of the other one as well, once a chunk of it ends where one of them
+ * starts. A file written by copying most of its bytes from another is fingerprinted without
+ * reading those again, see copy.
+ *
+ * Chunks only cut files whose line feeds are single bytes, UTF-8 and ISO-8859-1. A UTF-16
+ * file is a single chunk: any change to it is a change to the whole file. So is any change to
+ * a file whose fingerprint was only taken from its length and last modified time, see stat.
+ * Chars are counted from the lead bytes of UTF-8, which only gives the chars a decoder reads
+ * from well formed bytes: once a byte that isn't is hashed, any change is one to the whole file.
+ */
+public class FileFingerprint {
+    private static final int MIN_CHUNK = 1 << 11;
+    private static final int MAX_CHUNK = 1 << 16;
+    /** High bits of the gear hash, which depend on the last 64 bytes, a boundary every 8KB or so */
+    private static final long BOUNDARY_MASK = -1L << (64 - 13);
+    private static final int READ_SIZE = 1 << 20;
+    private static final int COPY_READ_SIZE = 1 << 16;
+    private static final long[] GEAR = new long[256];
+    static {
+        Random random = new Random(0x9E3779B97F4A7C15L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Chars [oldStart, oldEnd) of the buffer as of the old fingerprint were replaced by the
+     * bytes [newStart, newEnd) of the file, oldEnd is -1 if the chars run to the end
+     */
+    public static class Change {
+        public final int oldStart;
+        public final int oldEnd;
+        public final long newStart;
+        public final long newEnd;
+
+        Change(int oldStart, int oldEnd, long newStart, long newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+    }
+
+    private long length;
+    private long modified;
+    private final int start;
+    private final boolean hashed;
+    private final boolean chunked;
+    private final boolean utf8;
+    private final boolean crlf;
+    private boolean malformed;
+    private long[] hashes;
+    private int[] byteLengths;
+    private int[] charLengths;
+    private int count;
+
+    // State of the chunk being hashed, only used while the fingerprint is computed
+    private final CRC32C crc;
+    private long gear;
+    private int chunkBytes;
+    private int chunkChars;
+    private int previous;
+    private boolean cutAtLineFeed;
+    private int continuations; // number of continuation bytes the UTF-8 sequence being hashed still needs
+    private int lowest; // range the next of them must be in
+    private int highest;
+    private long added;
+    private ByteBuffer copied; // bytes read by copy, from copiedStart in its source
+    private long copiedStart;
+    private long[] chunkStarts; // position of every chunk in the file, computed when copy first needs them
+
+    private FileFingerprint(long length, long modified, TextCodec codec, boolean hashed) {
+        this.length = length;
+        this.modified = modified;
+        this.hashed = hashed;
+        Charset charset = codec.getCharset();
+        utf8 = charset.equals(StandardCharsets.UTF_8);
+        chunked = utf8 || charset.equals(StandardCharsets.ISO_8859_1);
+        crlf = codec.getLineSeparator().equals("\r\n");
+        start = !codec.hasBom() ? 0 : (utf8 ? 3 : 2);
+        hashes = new long[16];
+        byteLengths = new int[16];
+        charLengths = new int[16];
+        count = 0;
+        crc = new CRC32C();
+    }
+
+    /** Returns the fingerprint of the bytes of a file last modified at modified */
+    public static FileFingerprint of(byte[] bytes, long modified, TextCodec codec) {
+        FileFingerprint fingerprint = new FileFingerprint(bytes.length, modified, codec, true);
+        int start = Math.min(fingerprint.start, bytes.length);
+        fingerprint.hash(ByteBuffer.wrap(bytes), start, bytes.length, false);
+        fingerprint.endChunk();
+        return fingerprint;
+    }
+
+    /** Reads file READ_SIZE bytes at a time and returns its fingerprint */
+    public static FileFingerprint read(File file, TextCodec codec) throws IOException {
+        long modified = file.lastModified();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FileFingerprint fingerprint = new FileFingerprint(channel.size(), modified, codec, true);
+            ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+            long position = fingerprint.start;
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                fingerprint.hash(buffer, 0, read, false);
+                position += read;
+            }
+            fingerprint.endChunk();
+            return fingerprint;
+        }
+    }
+
+    /**
+     * Returns the fingerprint of file without reading it, only its length and last modified
+     * time, for files too large to read again on every change
+     */
+    public static FileFingerprint stat(File file, TextCodec codec) {
+        return new FileFingerprint(file.length(), file.lastModified(), codec, false);
+    }
+
+    /**
+     * Returns an empty fingerprint of a file being written with codec, its bytes are given to
+     * add and copy in order and the fingerprint is complete once finish is called
+     */
+    public static FileFingerprint writing(TextCodec codec) {
+        return new FileFingerprint(0, 0, codec, true);
+    }
+
+    /** Hashes the bytes from the position to the limit of bytes, the next ones written, bytes isn't moved */
+    public void add(ByteBuffer bytes) {
+        int from = bytes.position();
+        if (added < start) {
+            from += (int) Math.min(start - added, bytes.remaining()); // the byte order mark isn't hashed
+        }
+        added += bytes.remaining();
+        hash(bytes, from, bytes.limit(), false);
+    }
+
+    /**
+     * Hashes the next length bytes written, copied from the bytes of source starting at from
+     * original is the fingerprint of source, or null if it has none. Once a chunk ends where
+     * one of original starts, the chunks of original that were copied whole are taken as they
+     * are, without being read, the other bytes are read from source.
+     */
+    public void copy(FileChannel source, long from, long length, FileFingerprint original) throws IOException {
+        boolean reusable = original != null && original.hashed && original.chunked && chunked
+                && original.utf8 == utf8 && original.crlf == crlf;
+        long position = from;
+        long end = from + length;
+        if (added < start) {
+            position += Math.min(start - added, length); // the byte order mark isn't hashed
+        }
+        added += length;
+        if (copied == null) {
+            copied = ByteBuffer.allocate(COPY_READ_SIZE);
+            copied.limit(0);
+            copiedStart = -1;
+        }
+        while (position < end) {
+            if (reusable && chunkBytes == 0) {
+                int chunk = original.chunkStartingAt(position);
+                // The last chunk of original was cut by the end of its file, not by its contents
+                while (chunk >= 0 && chunk < original.count - 1 && position + original.byteLengths[chunk] <= end) {
+                    addChunk(original.hashes[chunk], original.byteLengths[chunk], original.charLengths[chunk]);
+                    malformed |= original.malformed;
+                    position += original.byteLengths[chunk];
+                    previous = 0; // as if it were hashed here, no chunk ends with a '\r'
+                    chunk++;
+                }
+                if (position == end) {
+                    break;
+                }
+            }
+            if (position < copiedStart || position >= copiedStart + copied.limit()) {
+                copied.clear();
+                copied.limit((int) Math.min(copied.capacity(), end - position));
+                while (copied.hasRemaining() && source.read(copied, position + copied.position()) > 0) {
+                    // Keeps reading until the buffer is full or the copied bytes end
+                }
+                if (copied.position() == 0) {
+                    throw new IOException("Copied bytes are no longer available at " + position);
+                }
+                copied.flip();
+                copiedStart = position;
+            }
+            int to = (int) Math.min(copied.limit(), end - copiedStart);
+            position = copiedStart + hash(copied, (int) (position - copiedStart), to, reusable);
+        }
+    }
+
+    /** Completes a fingerprint being written, the file being last modified at modified */
+    public void finish(long modified) {
+        endChunk();
+        this.length = added;
+        this.modified = modified;
+        copied = null;
+    }
+
+    /** Whether file still has the length and last modified time this fingerprint was taken at */
+    public boolean matches(File file) {
+        return file.length() == length && file.lastModified() == modified;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * Returns what changed from this fingerprint to newer, the chunks at both ends that hash the
+     * same are left out, or null if the contents are the same
+     */
+    public Change diff(FileFingerprint newer) {
+        if (!hashed || !newer.hashed || malformed || newer.malformed) {
+            return new Change(0, -1, newer.start, newer.length);
+        }
+        int common = Math.min(count, newer.count);
+        int prefix = 0;
+        while (prefix < common && sameChunk(prefix, newer, prefix)) {
+            prefix++;
+        }
+        if (prefix == count && prefix == newer.count && start == newer.start) {
+            return null;
+        }
+        int suffix = 0;
+        while (suffix < common - prefix && sameChunk(count - 1 - suffix, newer, newer.count - 1 - suffix)) {
+            suffix++;
+        }
+        if (!chunked || !newer.chunked || start != newer.start) {
+            return new Change(0, -1, newer.start, newer.length);
+        }
+        int oldStart = 0;
+        long newStart = newer.start;
+        for (int i = 0; i < prefix; i++) {
+            oldStart += charLengths[i];
+            newStart += newer.byteLengths[i];
+        }
+        int oldEnd = oldStart;
+        for (int i = prefix; i < count - suffix; i++) {
+            oldEnd += charLengths[i];
+        }
+        long newEnd = newStart;
+        for (int i = prefix; i < newer.count - suffix; i++) {
+            newEnd += newer.byteLengths[i];
+        }
+        return new Change(oldStart, oldEnd, newStart, newEnd);
+    }
+
+    private boolean sameChunk(int index, FileFingerprint other, int otherIndex) {
+        return hashes[index] == other.hashes[otherIndex] && byteLengths[index] == other.byteLengths[otherIndex];
+    }
+
+    /**
+     * Hashes bytes [from, to), the next ones of the file, ending chunks wherever they end
+     * Stops right after the first chunk that ends if stopAtChunkEnd is set. Returns the index
+     * of the first byte not hashed, to if all were.
+     */
+    private int hash(ByteBuffer bytes, int from, int to, boolean stopAtChunkEnd) {
+        int runStart = from; // first byte not yet added to crc
+        for (int i = from; i < to; i++) {
+            int b = bytes.get(i) & 0xff;
+            if (chunked && chunkBytes >= MAX_CHUNK && (!utf8 || (b & 0xc0) != 0x80) && previous != '\r') {
+                // No line feed for too long, cut anyway, but never within a char or a line ending
+                updateCrc(bytes, runStart, i);
+                runStart = i;
+                endChunk();
+                if (stopAtChunkEnd) {
+                    return i;
+                }
+            }
+            if (utf8 && !malformed) {
+                checkWellFormed(b);
+            }
+            if (!utf8 || (b & 0xc0) != 0x80) {
+                chunkChars += utf8 && b >= 0xf0 ? 2 : 1; // chars past U+FFFF are surrogate pairs
+            }
+            if (crlf && b == '\n' && previous == '\r') {
+                chunkChars--; // the buffer only holds the '\n'
+            }
+            gear = (gear << 1) + GEAR[b];
+            chunkBytes++;
+            previous = b;
+            if (chunked && chunkBytes >= MIN_CHUNK && (gear & BOUNDARY_MASK) == 0) {
+                cutAtLineFeed = true;
+            }
+            if (cutAtLineFeed && b == '\n') {
+                updateCrc(bytes, runStart, i + 1);
+                runStart = i + 1;
+                endChunk();
+                if (stopAtChunkEnd) {
+                    return i + 1;
+                }
+            }
+        }
+        updateCrc(bytes, runStart, to);
+        return to;
+    }
+
+    /**
+     * Follows the UTF-8 sequence b is part of, setting malformed at the first byte a decoder
+     * wouldn't take as part of a char: overlong forms, surrogates and code points past U+10FFFF
+     * are malformed, see TextCodec
+     */
+    private void checkWellFormed(int b) {
+        if (continuations > 0) {
+            if (b < lowest || b > highest) {
+                malformed = true;
+            }
+            continuations--;
+            lowest = 0x80;
+            highest = 0xbf;
+        } else if (b >= 0xc2 && b <= 0xdf) {
+            continuations = 1;
+            lowest = 0x80;
+            highest = 0xbf;
+        } else if (b >= 0xe0 && b <= 0xef) {
+            continuations = 2;
+            lowest = b == 0xe0 ? 0xa0 : 0x80;
+            highest = b == 0xed ? 0x9f : 0xbf;
+        } else if (b >= 0xf0 && b <= 0xf4) {
+            continuations = 3;
+            lowest = b == 0xf0 ? 0x90 : 0x80;
+            highest = b == 0xf4 ? 0x8f : 0xbf;
+        } else if (b >= 0x80) {
+            malformed = true;
+        }
+    }
+
+    /** Adds bytes [from, to) to crc, leaving the position and limit of bytes as they were */
+    private void updateCrc(ByteBuffer bytes, int from, int to) {
+        int position = bytes.position();
+        int limit = bytes.limit();
+        bytes.limit(to);
+        bytes.position(from);
+        crc.update(bytes);
+        bytes.limit(limit);
+        bytes.position(position);
+    }
+
+    /** Returns the index of the chunk starting at position in the file, -1 if none does */
+    private int chunkStartingAt(long position) {
+        if (chunkStarts == null) {
+            chunkStarts = new long[count];
+            long chunkStart = start;
+            for (int i = 0; i < count; i++) {
+                chunkStarts[i] = chunkStart;
+                chunkStart += byteLengths[i];
+            }
+        }
+        int index = Arrays.binarySearch(chunkStarts, position);
+        return index >= 0 ? index : -1;
+    }
+
+    /** Records the chunk hashed so far, if it holds any byte, and starts a new one */
+    private void endChunk() {
+        if (continuations > 0) {
+            malformed = true; // cut off within a char, chunks only end there at the end of the file
+        }
+        if (chunkBytes == 0) {
+            return;
+        }
+        addChunk(crc.getValue(), chunkBytes, chunkChars);
+        crc.reset();
+        gear = 0;
+        chunkBytes = 0;
+        chunkChars = 0;
+        cutAtLineFeed = false;
+    }
+
+    private void addChunk(long hash, int bytes, int chars) {
+        if (count == hashes.length) {
+            hashes = Arrays.copyOf(hashes, count * 2);
+            byteLengths = Arrays.copyOf(byteLengths, count * 2);
+            charLengths = Arrays.copyOf(charLengths, count * 2);
+        }
+        hashes[count] = hash;
+        byteLengths[count] = bytes;
+        charLengths[count] = chars;
+        count++;
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FileFingerprintTest {
+    public static void main(String[] args) throws IOException {
+        // Lines of varying length, with chars of one to four bytes and CRLF line endings
+        Random random = new Random(0);
+        String[] words = {"lorem", "caf\u00e9", "\u010dudo", "\u4e2d\u6587", "\ud83d\ude00", "x"};
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1 << 20) {
+            text.append(words[random.nextInt(words.length)]).append(random.nextInt(8) == 0 ? "\r\n" : " ");
+        }
+        byte[] old = text.toString().getBytes(StandardCharsets.UTF_8);
+        TextCodec.Decoded decoded = TextCodec.decode(old);
+        check(decoded.codec.getLineSeparator().equals("\r\n"), "CRLF");
+        FileFingerprint fingerprint = FileFingerprint.of(old, 1, decoded.codec);
+        check(fingerprint.diff(FileFingerprint.of(old, 2, decoded.codec)) == null, "same contents");
+
+        // A small change anywhere only touches the chunks around it
+        for (int round = 0; round < 50; round++) {
+            StringBuilder changed = new StringBuilder(text);
+            int at = random.nextInt(changed.length() - 10);
+            while (Character.isLowSurrogate(changed.charAt(at)) || changed.charAt(at) == '\n') {
+                at++;
+            }
+            changed.replace(at, at + 1 + random.nextInt(2), round % 2 == 0 ? "new \u00e9\r\nline" : "");
+            byte[] bytes = changed.toString().getBytes(StandardCharsets.UTF_8);
+            FileFingerprint newer = FileFingerprint.of(bytes, 2, decoded.codec);
+            FileFingerprint.Change change = fingerprint.diff(newer);
+            check(change != null, "change found");
+            check(change.newEnd - change.newStart < 1 << 18, "change is small: " + (change.newEnd - change.newStart));
+            String reloaded = new String(decoded.chars, 0, change.oldStart)
+                    + new String(decoded.codec.decode(bytes, (int) change.newStart, (int) change.newEnd))
+                    + new String(decoded.chars, change.oldEnd, decoded.chars.length - change.oldEnd);
+            // The file keeps the codec it was opened with, even if its lines now end in different ways
+            check(reloaded.equals(new String(decoded.codec.decode(bytes, 0, bytes.length))), "reloaded chars, round " + round);
+        }
+
+        // Reading a file gives the same fingerprint as its bytes
+        File file = File.createTempFile("fingerprint", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), old);
+        FileFingerprint read = FileFingerprint.read(file, decoded.codec);
+        check(read.matches(file) && fingerprint.diff(read) == null, "read file");
+
+        // UTF-16 is a single chunk, any change is a change to the whole file
+        byte[] utf16 = "\ufeffone\ntwo\n".getBytes(StandardCharsets.UTF_16BE);
+        TextCodec codec = TextCodec.decode(utf16).codec;
+        FileFingerprint.Change whole = FileFingerprint.of(utf16, 1, codec)
+                .diff(FileFingerprint.of("\ufeffone\nTWO\n".getBytes(StandardCharsets.UTF_16BE), 2, codec));
+        check(whole.oldStart == 0 && whole.oldEnd == -1 && whole.newStart == 2 && whole.newEnd == utf16.length,
+                "UTF-16");
+
+        // Malformed UTF-8 decodes to chars that can't be counted from its bytes, any change is to the whole file
+        for (int[] bad : new int[][] {{0xff}, {0xc3}, {0xe0, 0x80, 0x80}, {0xed, 0xa0, 0x80}, {0xf4, 0x90, 0x80, 0x80}}) {
+            byte[] malformed = new byte[old.length + bad.length];
+            System.arraycopy(old, 0, malformed, 0, 5000);
+            for (int i = 0; i < bad.length; i++) {
+                malformed[5000 + i] = (byte) bad[i];
+            }
+            System.arraycopy(old, 5000, malformed, 5000 + bad.length, old.length - 5000);
+            FileFingerprint malformedPrint = FileFingerprint.of(malformed, 2, decoded.codec);
+            whole = fingerprint.diff(malformedPrint);
+            check(whole.oldStart == 0 && whole.oldEnd == -1 && whole.newEnd == malformed.length, "malformed " + bad[0]);
+            whole = malformedPrint.diff(fingerprint);
+            check(whole.oldStart == 0 && whole.oldEnd == -1, "from malformed " + bad[0]);
+        }
+        byte[] cutOff = Arrays.copyOf(old, old.length + 1);
+        cutOff[old.length] = (byte) 0xe2;
+        check(fingerprint.diff(FileFingerprint.of(cutOff, 2, decoded.codec)).oldEnd == -1, "cut off char");
+
+        // A fingerprint of the length and last modified time alone can't tell what changed
+        FileFingerprint stat = FileFingerprint.stat(file, decoded.codec);
+        check(stat.matches(file) && stat.getLength() == old.length, "stat");
+        whole = stat.diff(read);
+        check(whole.oldStart == 0 && whole.oldEnd == -1 && whole.newEnd == old.length, "stat diff");
+
+        // A saved file is fingerprinted as it is written, its encoded chars as they are drained
+        TextBuffer edited = new TextBuffer(decoded.chars);
+        edited.insert(1000, "typed\n");
+        File saved = File.createTempFile("fingerprint", ".txt");
+        saved.deleteOnExit();
+        FileSaver saver = new FileSaver(decoded.codec, null);
+        saver.fingerprint(null);
+        saver.save(edited.snapshot(), saved);
+        check(saver.getFingerprint().matches(saved), "saved matches");
+        check(saver.getFingerprint().diff(FileFingerprint.read(saved, decoded.codec)) == null, "saved");
+
+        // And the bytes it copies from the original file, with or without the fingerprint of those
+        StringBuilder ascii = new StringBuilder();
+        while (ascii.length() < 1 << 20) {
+            ascii.append("word").append(random.nextInt(1000)).append(random.nextInt(8) == 0 ? "\n" : " ");
+        }
+        byte[] original = ascii.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), original);
+        TextCodec.Decoded plain = TextCodec.decode(original);
+        check(plain.codec.isOneBytePerChar(original.length, plain.chars.length), "one byte per char");
+        edited = new TextBuffer(plain.chars);
+        edited.insert(300000, "typed\n");
+        edited.delete(500000, 20000);
+        edited.insert(edited.length() - 100, "end");
+        try (FileChannel originalBytes = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            FileFingerprint[] originals = {FileFingerprint.read(file, plain.codec), null};
+            for (FileFingerprint originalFingerprint : originals) {
+                saver = new FileSaver(plain.codec, originalBytes);
+                saver.fingerprint(originalFingerprint);
+                saver.save(edited.snapshot(), saved);
+                check(saver.getFingerprint().matches(saved), "copied matches");
+                check(saver.getFingerprint().diff(FileFingerprint.read(saved, plain.codec)) == null, "copied");
+            }
+        }
+        System.out.println("FileFingerprintTest passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileFollower class watches a file that is being written to, like tail -f, and decodes the
+ * bytes appended to it for the Editor to add to the end of the buffer
+ *
+ * 	position: number of bytes of the file read so far, only the bytes past it are ever read
+ * 	appended: chars decoded since the Editor last took them, with lines ending in '\n'
+ * 	notified: whether onAppended was called since the Editor last took the chars
+ * 	handedLength, handedModified: length of the file the chars in appended were decoded up to,
+ * 		and its last modified time then, which the chars taken last are in takenLength and
+ * 		takenModified, so that the Editor knows which version of the file its buffer holds
+ *
+ * The follow thread wakes up whenever the WatchService reports a change to the directory of
+ * the file, or every POLL_INTERVAL ms since not every file system reports changes, and reads
+ * whatever was written past position. onAppended is only called once until the chars are
+ * taken, however fast the file grows, so the Editor adds them in one edit per pulse at most.
+ *
+ * A chunk of bytes may end in the middle of a char or between the '\r' and '\n' of a line
+ * ending, the decoder and pendingCr carry those over to the next chunk.
+ */
+public class FileFollower implements Runnable {
+    private static final long POLL_INTERVAL = 100;
+    private static final int READ_SIZE = 1 << 16;
+
+    private final File file;
+    private final Runnable onAppended;
+    private final CharsetDecoder decoder;
+    private final String lineSeparator;
+    private final ByteBuffer bytes;
+    private final CharBuffer chars;
+    private final StringBuilder appended;
+    private final int crBytes;
+    private long position;
+    private long modified; // last modified time of the file read before its size, on the follow thread
+    private long handedLength;
+    private long handedModified;
+    private long takenLength;
+    private long takenModified;
+    private boolean pendingCr; // whether the last char decoded was a '\r' whose line ending isn't known yet
+    private boolean notified;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    /**
+     * Creates a follower of the bytes of file past position, decoded with codec
+     * onAppended is called on the follow thread whenever chars are ready to be taken
+     */
+    public FileFollower(File file, long position, TextCodec codec, Runnable onAppended) {
+        this.file = file;
+        this.position = position;
+        this.onAppended = onAppended;
+        decoder = codec.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        lineSeparator = codec.getLineSeparator();
+        bytes = ByteBuffer.allocate(READ_SIZE);
+        chars = CharBuffer.allocate((int) Math.ceil(READ_SIZE * (double) decoder.maxCharsPerByte()));
+        appended = new StringBuilder();
+        crBytes = "\r".getBytes(codec.getCharset()).length;
+        handedLength = position;
+        takenLength = position;
+    }
+
+    /** Starts following on a daemon thread */
+    public void start() {
+        thread = new Thread(this, "follow");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops following, chars not taken yet are dropped */
+    public void stop() {
+        stopped = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /** Returns the chars appended to the file since the last call, on any thread */
+    public synchronized String take() {
+        String text = appended.toString();
+        appended.setLength(0);
+        notified = false;
+        takenLength = handedLength;
+        takenModified = handedModified;
+        return text;
+    }
+
+    /**
+     * Returns the length of the file the chars taken last were read up to, excluding bytes
+     * not decoded yet, such as half a char or a '\r' whose line ending isn't known yet
+     */
+    public synchronized long takenLength() {
+        return takenLength;
+    }
+
+    /** Returns the last modified time of the file when the chars taken last were read */
+    public synchronized long takenModified() {
+        return takenModified;
+    }
+
+    @Override
+    public void run() {
+        Path path = file.getAbsoluteFile().toPath();
+        try (WatchService watcher = FileSystems.getDefault().newWatchService();
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!stopped) {
+                readAppended(channel);
+                WatchKey key = watcher.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents(); // any change in the directory is a reason to look at the size
+                    key.reset();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to follow file " + file);
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+
+    /** Reads and decodes the bytes past position, READ_SIZE at a time */
+    private void readAppended(FileChannel channel) throws IOException {
+        modified = file.lastModified(); // before the size, a write in between is read next time
+        long size = channel.size();
+        if (size < position) {
+            System.out.println(file + " was truncated, no longer following it");
+            stopped = true;
+            return;
+        }
+        while (position < size && !stopped) {
+            int read = channel.read(bytes, position);
+            if (read <= 0) {
+                break;
+            }
+            position += read;
+            bytes.flip();
+            decoder.decode(bytes, chars, false); // an incomplete char is left in bytes
+            bytes.compact();
+            chars.flip();
+            hand(chars);
+            chars.clear();
+        }
+    }
+
+    /** Adds decoded chars to appended with lines ending in '\n', notifying if nobody was yet */
+    private void hand(CharBuffer decoded) {
+        boolean notify;
+        synchronized (this) {
+            while (decoded.hasRemaining()) {
+                char c = decoded.get();
+                if (lineSeparator.equals("\r\n")) {
+                    if (pendingCr && c != '\n') {
+                        appended.append('\r'); // a '\r' of its own, not part of a line ending
+                    }
+                    pendingCr = c == '\r';
+                    if (!pendingCr) {
+                        appended.append(c);
+                    }
+                } else {
+                    appended.append(c == '\r' && lineSeparator.equals("\r") ? '\n' : c);
+                }
+            }
+            handedLength = position - bytes.position() - (pendingCr ? crBytes : 0);
+            handedModified = modified;
+            notify = !notified && appended.length() > 0;
+            notified |= notify;
+        }
+        if (notify) {
+            onAppended.run();
+        }
+    }
+}
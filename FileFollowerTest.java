@@ -0,0 +1,72 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class FileFollowerTest {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File file = File.createTempFile("follow", ".log");
+        file.deleteOnExit();
+        final Semaphore notified = new Semaphore(0);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write("old\r\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            TextCodec codec = new TextCodec(StandardCharsets.UTF_8, false, "\r\n");
+            FileFollower follower = new FileFollower(file, 5, codec, new Runnable() {
+                @Override
+                public void run() {
+                    notified.release();
+                }
+            });
+            follower.start();
+
+            // A char and a line ending split across writes come out whole
+            byte[] line = "caf\u00e9\r\n".getBytes(StandardCharsets.UTF_8);
+            out.write(line, 0, 4);
+            out.flush();
+            check(notified.tryAcquire(5, TimeUnit.SECONDS), "notified of the first bytes");
+            check(follower.take().equals("caf"), "first bytes");
+            check(follower.takenLength() == 8, "half a char isn't taken: " + follower.takenLength());
+            out.write(line, 4, 2);
+            out.flush();
+            check(notified.tryAcquire(5, TimeUnit.SECONDS), "notified of the rest");
+            Thread.sleep(300); // lets the '\n' come in on its own
+            out.write(line, 6, 1);
+            out.flush();
+            StringBuilder taken = new StringBuilder();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!taken.toString().equals("\u00e9\n") && System.currentTimeMillis() < deadline) {
+                taken.append(follower.take());
+                notified.tryAcquire(100, TimeUnit.MILLISECONDS);
+            }
+            check(taken.toString().equals("\u00e9\n"), "line ending split across writes: " + taken);
+            check(follower.takenLength() == file.length(), "taken up to " + follower.takenLength());
+            check(follower.takenModified() == file.lastModified(), "taken at " + follower.takenModified());
+
+            // Many lines written quickly are taken in one go
+            for (int i = 0; i < 10000; i++) {
+                out.write(("line " + i + "\r\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+            taken.setLength(0);
+            deadline = System.currentTimeMillis() + 5000;
+            while (!taken.toString().endsWith("line 9999\n") && System.currentTimeMillis() < deadline) {
+                notified.tryAcquire(100, TimeUnit.MILLISECONDS);
+                taken.append(follower.take());
+            }
+            check(taken.toString().startsWith("line 0\nline 1\n") && taken.toString().endsWith("line 9999\n"),
+                    "lines written quickly");
+            follower.stop();
+        }
+        System.out.println("FileFollowerTest passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * FileSaver class writes a snapshot of a TextBuffer to disk, use one FileSaver per save
+ *
+ * Chars are encoded CHUNK_SIZE at a time through a CharsetEncoder straight into a FileChannel,
+ * written to a temp file next to the target, forced to disk and atomically renamed over the
+ * target. A crash mid-save leaves either the old file or the new one, never a truncated one.
+ * Works on a PieceTable.Snapshot, so it can run off the FX thread while editing goes on.
+ *
+ * A byte order mark is written first if the file had one, and every '\n' is written as the
+ * line separator of the file, see TextCodec.
+ *
+ * When the bytes the original buffer was decoded from are still available, one byte per char,
+ * pieces that were never edited are copied with FileChannel.transferTo instead of being
+ * encoded again. Saving a huge file after a small edit then only encodes the edit.
+ *
+ * The saved file can be fingerprinted as it is written, see fingerprint, so that it doesn't
+ * have to be read back to tell whether another program changes it afterwards.
+ */
+public class FileSaver {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final CharsetEncoder encoder;
+    private final TextCodec codec;
+    private final FileChannel originalBytes;
+    private final char[] chars;
+    private final char[] separated; // chars read from the snapshot before their newlines are replaced
+    private final CharBuffer in;
+    private final ByteBuffer out;
+    private FileChannel channel;
+    private long written;
+    private boolean fingerprinting;
+    private FileFingerprint originalFingerprint;
+    private FileFingerprint fingerprint;
+
+    public FileSaver(Charset charset) {
+        this(new TextCodec(charset, false, "\n"), null);
+    }
+
+    /**
+     * originalBytes holds the bytes of the original buffer, byte i being char i, or is null
+     * if the original chars have to be encoded like any other
+     */
+    public FileSaver(TextCodec codec, FileChannel originalBytes) {
+        this.codec = codec;
+        this.originalBytes = originalBytes;
+        encoder = codec.getCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars = new char[CHUNK_SIZE];
+        separated = codec.getLineSeparator().equals("\n") ? null : new char[CHUNK_SIZE / 2];
+        in = CharBuffer.wrap(chars);
+        out = ByteBuffer.allocateDirect((int) (CHUNK_SIZE * encoder.maxBytesPerChar()));
+    }
+
+    /**
+     * Makes save fingerprint the file as it writes it, see getFingerprint
+     * original is the fingerprint of originalBytes, or null if they have none: the bytes
+     * copied from them are then read again to be hashed.
+     */
+    public void fingerprint(FileFingerprint original) {
+        fingerprinting = true;
+        originalFingerprint = original;
+    }
+
+    /** Returns the fingerprint of the file written by the last save, null unless asked for */
+    public FileFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Writes text to file, replacing it atomically, returns the number of bytes written
+     * A symbolic link is followed, the file it points to is replaced rather than the link.
+     */
+    public long save(PieceTable.Snapshot text, File file) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        if (Files.exists(target)) {
+            target = target.toRealPath();
+        }
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".save");
+        try {
+            copyPermissions(target, temp);
+            channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            fingerprint = fingerprinting ? FileFingerprint.writing(codec) : null;
+            try {
+                write(text);
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            if (fingerprint != null) {
+                fingerprint.finish(temp.toFile().lastModified()); // kept by the move
+            }
+            move(temp, target);
+            return written;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void write(PieceTable.Snapshot text) throws IOException {
+        written = 0;
+        if (codec.hasBom()) {
+            in.put('\uFEFF'); // encoded as the byte order mark of the charset
+        }
+        for (int piece = 0; piece < text.pieceCount(); piece++) {
+            int offset = text.pieceOffset(piece);
+            int length = text.pieceLength(piece);
+            if (originalBytes != null && text.isOriginal(piece)) {
+                finishEncoding();
+                transfer(text.pieceStart(piece), length);
+            } else {
+                encode(text, offset, offset + length);
+            }
+        }
+        finishEncoding();
+    }
+
+    /** Encodes the chars of text in [start, end), possibly leaving half a surrogate pair in in */
+    private void encode(PieceTable.Snapshot text, int start, int end) throws IOException {
+        while (start < end) {
+            if (separated == null) {
+                int count = Math.min(in.remaining(), end - start);
+                text.getChars(start, start + count, chars, in.position());
+                start += count;
+                in.position(in.position() + count);
+            } else {
+                // Every char may grow to two, in always has room for half a chunk
+                int count = Math.min(Math.min(separated.length, in.remaining() / 2), end - start);
+                text.getChars(start, start + count, separated, 0);
+                start += count;
+                putSeparated(count);
+            }
+            in.flip();
+            CoderResult result;
+            do {
+                result = encoder.encode(in, out, false);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                drain();
+            } while (result.isOverflow());
+            in.compact();
+        }
+    }
+
+    /** Puts the first count chars of separated in in, with every '\n' replaced by the line separator */
+    private void putSeparated(int count) {
+        String lineSeparator = codec.getLineSeparator();
+        for (int i = 0; i < count; i++) {
+            char c = separated[i];
+            if (c == '\n') {
+                in.put(lineSeparator);
+            } else {
+                in.put(c);
+            }
+        }
+    }
+
+    /** Encodes whatever is left in in and flushes the encoder, which can then start over */
+    private void finishEncoding() throws IOException {
+        in.flip();
+        while (encoder.encode(in, out, true).isOverflow()) {
+            drain();
+        }
+        while (encoder.flush(out).isOverflow()) {
+            drain();
+        }
+        drain();
+        in.clear();
+        encoder.reset();
+    }
+
+    /** Copies the original bytes [start, start + length) without going through the CPU */
+    private void transfer(long start, long length) throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            long count = originalBytes.transferTo(start + transferred, length - transferred, channel);
+            if (count == 0) {
+                throw new IOException("Original bytes are no longer available at " + (start + transferred));
+            }
+            transferred += count;
+        }
+        if (fingerprint != null) {
+            fingerprint.copy(originalBytes, start, length, originalFingerprint);
+        }
+        written += length;
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        if (fingerprint != null) {
+            fingerprint.add(out);
+        }
+        written += out.remaining();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /** Temp files are created private to the user, the saved file keeps the target's permissions */
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        if (Files.exists(from)) {
+            try {
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system, nothing to copy
+            }
+        }
+    }
+
+    private static void move(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+/**
+ * GlyphMetrics class caches the advance width of every char of one Font, as measured by JavaFX
+ *
+ * 	latin1: widths of chars 0-255, measured once up front, so the common case is an array lookup
+ * 	keys, widths: open addressing hash table for every other char, filled the first time a
+ * 		char is seen
+ *
+ * Measuring a char in JavaFX means running text layout on a Text node, which is far too slow
+ * to do for every char on every reflow.
+ *
+ * Safe to use from several threads at once, so that lines can be wrapped in parallel: latin1
+ * never changes once measured, the table and the scratch Text are only touched under a lock.
+ */
+public class GlyphMetrics implements CharMetrics {
+    private static final int LATIN1_SIZE = 256;
+    private static final char EMPTY = 0; // never stored in the table, chars below 256 use latin1
+
+    private final Text measure; // scratch Text used to measure a char the first time it is seen
+    private final double[] latin1;
+    private final double lineHeight;
+    private char[] keys;
+    private double[] widths;
+    private int size;
+
+    public GlyphMetrics(Font font) {
+        measure = new Text();
+        measure.setFont(font);
+        lineHeight = measure.getLayoutBounds().getHeight();
+        latin1 = new double[LATIN1_SIZE];
+        for (char c = 0; c < LATIN1_SIZE; c++) {
+            latin1[c] = measure(c);
+        }
+        latin1['\n'] = 0;
+        latin1['\t'] = measure.getTabSize() * latin1[' ']; // tab stops of a Text are tabSize spaces apart
+        keys = new char[64];
+        widths = new double[64];
+        size = 0;
+    }
+
+    @Override
+    public double width(char c) {
+        return c < LATIN1_SIZE ? latin1[c] : cachedWidth(c);
+    }
+
+    /** Returns the advance width of a char past latin1, measuring it if it hasn't been yet */
+    private synchronized double cachedWidth(char c) {
+        int mask = keys.length - 1;
+        for (int i = hash(c) & mask; ; i = (i + 1) & mask) {
+            if (keys[i] == c) {
+                return widths[i];
+            }
+            if (keys[i] == EMPTY) {
+                double width = measure(c);
+                put(c, width);
+                return width;
+            }
+        }
+    }
+
+    @Override
+    public double getLineHeight() {
+        return lineHeight;
+    }
+
+    private double measure(char c) {
+        measure.setText(String.valueOf(c));
+        return measure.getLayoutBounds().getWidth();
+    }
+
+    private void put(char c, double width) {
+        if (2 * (size + 1) > keys.length) {
+            char[] oldKeys = keys;
+            double[] oldWidths = widths;
+            keys = new char[oldKeys.length * 2];
+            widths = new double[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldWidths[i]);
+                }
+            }
+        }
+        int mask = keys.length - 1;
+        int i = hash(c) & mask;
+        while (keys[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = c;
+        widths[i] = width;
+        size++;
+    }
+
+    private static int hash(char c) {
+        return c * 0x9E3779B1 >>> 16;
+    }
+}
@@ -0,0 +1,86 @@
+import java.util.Arrays;
+
+/**
+ * Histogram class counts non-negative values into log-linear buckets, to report percentiles
+ * of latencies or sizes without keeping every value
+ *
+ * 	counts: values 0 to SUB_BUCKETS - 1 get a bucket each, every power of two above that is
+ * 		split into SUB_BUCKETS buckets, so a percentile is off by at most 1 / SUB_BUCKETS
+ * 	max: largest value recorded, exact
+ *
+ * Recording is a few shifts and an increment and never allocates, so it can be done on every
+ * keystroke. Methods are synchronized: values are recorded on one thread and read on another.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts;
+    private long count;
+    private long total;
+    private long max;
+
+    public Histogram() {
+        counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+    }
+
+    /** Records value, negative values count as 0 */
+    public synchronized void record(long value) {
+        value = Math.max(0, value);
+        counts[bucketOf(value)]++;
+        count++;
+        total += value;
+        max = Math.max(max, value);
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    public synchronized long total() {
+        return total;
+    }
+
+    public synchronized long max() {
+        return max;
+    }
+
+    /**
+     * Returns the value below which fraction of the values recorded fall, the upper bound of
+     * its bucket but never more than max, 0 if nothing was recorded
+     */
+    public synchronized long percentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(max, upperBound(i));
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS + 1) << shift) - 1;
+    }
+}
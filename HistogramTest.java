@@ -0,0 +1,33 @@
+public class HistogramTest {
+    public static void main(String[] args) {
+        Histogram histogram = new Histogram();
+        check(histogram.percentile(0.99) == 0, "empty histogram");
+
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        check(histogram.count() == 1000, "count");
+        check(histogram.max() == 1000000, "max is exact");
+        check(histogram.total() == 500500000L, "total");
+        // Percentiles are the upper bound of a bucket, within 1/16 of the actual value
+        long p50 = histogram.percentile(0.5);
+        check(p50 >= 500000 && p50 <= 500000 * 17 / 16, "p50 " + p50);
+        long p99 = histogram.percentile(0.99);
+        check(p99 >= 990000 && p99 <= 1000000, "p99 " + p99);
+        check(histogram.percentile(1) == 1000000, "p100 is max");
+
+        // Small values are exact, huge ones don't overflow
+        histogram.reset();
+        histogram.record(3);
+        check(histogram.percentile(0.5) == 3, "small value");
+        histogram.record(Long.MAX_VALUE);
+        check(histogram.percentile(1) == Long.MAX_VALUE, "huge value");
+        System.out.println("HistogramTest passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Layout class wraps the chars of a TextBuffer into visual lines
+ *
+ * 	lineStarts: offset of the first char of every visual line, in increasing order, kept as a
+ * 		gap buffer: lines before gapStart store their offset, lines from gapEnd on store their
+ * 		offset minus length, so an edit shifts every line after it without touching them
+ * 	length: length of the buffer the entries past the gap are relative to
+ * 	wrapWidth: width available to a line, a char that doesn't fit starts a new line
+ *
+ * Without wrapping every visual line is a line of the buffer, answered straight from the
+ * buffer's newline index, so nothing is measured up front. Used for files too large to wrap.
+ *
+ * A '\n' ends its line and takes no width. A '\t' reaches to the next tab stop, which are
+ * the width CharMetrics gives it apart from the start of the visual line, where the Text of
+ * a line draws them. Positions are relative to the top left corner
+ * of the text, x in pixels and y in lines, so that the Editor decides where text is drawn.
+ * Widths come from a CharMetrics, layout never touches a node and runs without a stage.
+ */
+public class Layout {
+    private final TextBuffer buffer;
+    private final CharMetrics metrics;
+    private double[] glyphX; // results of positionGlyphs, kept in a field so that it doesn't allocate
+    private int[] lineStarts;
+    private int gapStart;
+    private int gapEnd;
+    private int length;
+    private double wrapWidth;
+    private final boolean wrap;
+
+    public Layout(TextBuffer buffer, CharMetrics metrics, double wrapWidth) {
+        this(buffer, metrics, wrapWidth, true);
+    }
+
+    /** Creates a layout that soft wraps lines at wrapWidth only if wrap is set */
+    public Layout(TextBuffer buffer, CharMetrics metrics, double wrapWidth, boolean wrap) {
+        this.buffer = buffer;
+        glyphX = new double[128];
+        this.wrapWidth = wrapWidth;
+        this.wrap = wrap;
+        this.metrics = metrics;
+        reflowAll();
+    }
+
+    public void setWrapWidth(double wrapWidth) {
+        this.wrapWidth = wrapWidth;
+    }
+
+    public double getWrapWidth() {
+        return wrapWidth;
+    }
+
+    public boolean isWrapping() {
+        return wrap;
+    }
+
+    /** Rewraps every line on the calling thread, see wrap for rewrapping a large buffer */
+    public void reflowAll() {
+        setLineStarts(wrap ? wrapParagraphs(buffer, 0, wrapWidth) : new int[] {0}, wrapWidth);
+    }
+
+    /** Replaces every line by starts, lines wrapped at wrapWidth for the current buffer */
+    public void setLineStarts(int[] starts, double wrapWidth) {
+        setLineStarts(starts, wrapWidth, buffer.length());
+    }
+
+    /**
+     * Replaces every line by starts, lines wrapped at wrapWidth for a text of length chars
+     * that the buffer has been edited from since, update must then be called for those edits
+     */
+    public void setLineStarts(int[] starts, double wrapWidth, int length) {
+        this.wrapWidth = wrapWidth;
+        lineStarts = starts;
+        gapStart = starts.length;
+        gapEnd = starts.length;
+        this.length = length;
+    }
+
+    /**
+     * Returns up to chunks offsets at which a paragraph starts, spread evenly over the buffer
+     * and beginning with 0, to split the buffer into chunks that wrap can work on separately
+     */
+    public int[] paragraphStarts(int chunks) {
+        int[] starts = new int[chunks];
+        int count = 0;
+        starts[count++] = 0;
+        for (int i = 1; i < chunks; i++) {
+            int line = buffer.lineOf((int) ((long) buffer.length() * i / chunks)) + 1;
+            if (line < buffer.lineCount() && buffer.lineStart(line) > starts[count - 1]) {
+                starts[count++] = buffer.lineStart(line);
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Returns the start of every line of text wrapped at wrapWidth, to be passed to setLineStarts
+     *
+     * A line always starts over after a '\n', so the chunks between paragraphStarts are wrapped
+     * independently, each by its own fork join task. Doesn't touch the layout or the buffer,
+     * it is meant to run off the FX thread on a snapshot of the buffer.
+     */
+    public int[] wrap(CharSequence text, int[] paragraphStarts, double wrapWidth) {
+        List<WrapTask> tasks = new ArrayList<>(paragraphStarts.length);
+        for (int i = 0; i < paragraphStarts.length; i++) {
+            int end = i + 1 < paragraphStarts.length ? paragraphStarts[i + 1] : text.length();
+            tasks.add(new WrapTask(text, paragraphStarts[i], end, wrapWidth));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        // The '\n' ending a chunk already started the line the next chunk starts with
+        int count = 1;
+        for (WrapTask task : tasks) {
+            count += task.join().length - 1;
+        }
+        int[] starts = new int[count];
+        count = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            int[] chunk = tasks.get(i).join();
+            int skip = i == 0 ? 0 : 1;
+            System.arraycopy(chunk, skip, starts, count, chunk.length - skip);
+            count += chunk.length - skip;
+        }
+        return starts;
+    }
+
+    /** Wraps the chars in [start, end) of a text, start being the start of a paragraph */
+    private class WrapTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence text;
+        private final int start;
+        private final int end;
+        private final double wrapWidth;
+
+        WrapTask(CharSequence text, int start, int end, double wrapWidth) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.wrapWidth = wrapWidth;
+        }
+
+        @Override
+        protected int[] compute() {
+            return wrapParagraphs(text.subSequence(start, end), start, wrapWidth);
+        }
+    }
+
+    /** Returns the start of every line of text, whose first char is at offset base */
+    private int[] wrapParagraphs(CharSequence text, int base, double wrapWidth) {
+        int[] starts = new int[16];
+        int count = 0;
+        starts[count++] = base;
+        int start = 0;
+        double x = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            double width = charWidth(c, x);
+            int lineBreak = -1;
+            if (c == '\n') {
+                lineBreak = i + 1;
+                x = 0;
+            } else if (x + width > wrapWidth && i > start) {
+                lineBreak = i;
+                x = charWidth(c, 0);
+            } else {
+                x += width;
+            }
+            if (lineBreak >= 0) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = base + lineBreak;
+                start = lineBreak;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * Rewraps the lines affected by removed chars at offset being replaced by inserted chars
+     *
+     * Since every line starts at x = 0, where a line breaks only depends on where it starts.
+     * Rewrapping starts a line before the edit, as deleting a char can let the previous line
+     * take in more chars, and stops as soon as a new line starts where an old line past the edit
+     * started. The gap is moved to the edit first, so the remaining old lines follow the change
+     * in length without being measured or even written: typing only moves the few lines the
+     * cursor went past since the last edit.
+     */
+    public void update(int offset, int removed, int inserted) {
+        if (!wrap) {
+            return;
+        }
+        int line = Math.max(0, lineOf(offset) - 1);
+        moveGap(line + 1);
+        length += inserted - removed; // old lines past the gap are now at their new offsets
+
+        boolean converged = false;
+        int start = lineStarts[line];
+        double x = 0;
+        for (int i = start; i < length && !converged; i++) {
+            char c = buffer.charAt(i);
+            double width = charWidth(c, x);
+            int lineBreak = -1;
+            if (c == '\n') {
+                lineBreak = i + 1;
+                x = 0;
+            } else if (x + width > wrapWidth && i > start) {
+                lineBreak = i;
+                x = charWidth(c, 0);
+            } else {
+                x += width;
+            }
+
+            if (lineBreak >= 0) {
+                if (lineBreak >= offset + inserted) {
+                    // Old lines starting before lineBreak were rewrapped or removed, drop them
+                    while (gapEnd < lineStarts.length && lineStarts[gapEnd] + length < lineBreak) {
+                        gapEnd++;
+                    }
+                    converged = gapEnd < lineStarts.length && lineStarts[gapEnd] + length == lineBreak;
+                }
+                if (!converged) {
+                    addLine(lineBreak);
+                    start = lineBreak;
+                }
+            }
+        }
+        if (!converged) {
+            gapEnd = lineStarts.length;
+        }
+    }
+
+    public int lineCount() {
+        return wrap ? gapStart + lineStarts.length - gapEnd : buffer.lineCount();
+    }
+
+    /** Returns the offset of the first char of line */
+    public int lineStart(int line) {
+        if (!wrap) {
+            return buffer.lineStart(line);
+        }
+        return line < gapStart ? lineStarts[line] : lineStarts[line + gapEnd - gapStart] + length;
+    }
+
+    /**
+     * Returns the last offset the cursor can take on line, which is right before its '\n'
+     * or, for a wrapped line, right before its last char since the offset after it is
+     * displayed at the beginning of the next line
+     */
+    public int lineEnd(int line) {
+        if (!wrap) {
+            return buffer.lineEnd(line);
+        }
+        if (line == lineCount() - 1) {
+            return buffer.length();
+        }
+        return lineStart(line + 1) - 1;
+    }
+
+    /** Returns the line containing offset, an offset shared by two lines belongs to the one below */
+    public int lineOf(int offset) {
+        if (!wrap) {
+            return buffer.lineOf(offset);
+        }
+        int low = 0;
+        int high = lineCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStart(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /** Returns the x position of the boundary right before offset */
+    public double xOf(int offset) {
+        double x = 0;
+        for (int i = lineStart(lineOf(offset)); i < offset; i++) {
+            x += charWidth(buffer.charAt(i), x);
+        }
+        return x;
+    }
+
+    /** Returns the offset on line whose boundary is closest to x */
+    public int offsetAt(int line, double x) {
+        int end = lineEnd(line);
+        double left = 0;
+        for (int i = lineStart(line); i < end; i++) {
+            double width = charWidth(buffer.charAt(i), left);
+            if (x < left + width / 2) {
+                return i;
+            }
+            left += width;
+        }
+        return end;
+    }
+
+    /**
+     * Computes the x position of the chars of line into getGlyphX(): x[i] is the left edge of
+     * the char at lineStart(line) + i and x[count] the right edge of the last one positioned.
+     * A line too long to wrap is only positioned up to the first char starting past wrapWidth.
+     * Returns count, the number of chars positioned. The array is reused by the next call.
+     */
+    public int positionGlyphs(int line) {
+        int start = lineStart(line);
+        int end = line == lineCount() - 1 ? buffer.length() : lineStart(line + 1);
+        int count = 0;
+        double x = 0;
+        for (int i = start; i < end && x <= wrapWidth; i++) {
+            if (count + 1 == glyphX.length) {
+                glyphX = Arrays.copyOf(glyphX, glyphX.length * 2);
+            }
+            glyphX[count++] = x;
+            x += charWidth(buffer.charAt(i), x);
+        }
+        glyphX[count] = x;
+        return count;
+    }
+
+    /** Returns the positions computed by the last call to positionGlyphs */
+    public double[] getGlyphX() {
+        return glyphX;
+    }
+
+    /** Returns the width of c drawn at x in the font of this layout, a cached lookup */
+    public double charWidth(char c, double x) {
+        double width = metrics.width(c);
+        if (c == '\t' && width > 0) {
+            return width - x % width; // up to the next tab stop
+        }
+        return width;
+    }
+
+    /** Inserts a line starting at start right before the gap */
+    private void addLine(int start) {
+        if (gapStart == gapEnd) {
+            int[] grown = new int[lineStarts.length * 2];
+            int after = lineStarts.length - gapEnd;
+            System.arraycopy(lineStarts, 0, grown, 0, gapStart);
+            System.arraycopy(lineStarts, gapEnd, grown, grown.length - after, after);
+            gapEnd = grown.length - after;
+            lineStarts = grown;
+        }
+        lineStarts[gapStart++] = start;
+    }
+
+    /** Moves the gap so that line is the first line after it */
+    private void moveGap(int line) {
+        while (gapStart > line) {
+            lineStarts[--gapEnd] = lineStarts[--gapStart] - length;
+        }
+        while (gapStart < line) {
+            lineStarts[gapStart++] = lineStarts[gapEnd++] + length;
+        }
+    }
+}
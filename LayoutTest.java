@@ -0,0 +1,108 @@
+public class LayoutTest {
+    /** Every char is 1 wide except 'm', which is 3, and '\t', whose tab stops are 4 apart */
+    private static final CharMetrics METRICS = new CharMetrics() {
+        @Override
+        public double width(char c) {
+            return c == '\n' ? 0 : (c == 'm' ? 3 : (c == '\t' ? 4 : 1));
+        }
+
+        @Override
+        public double getLineHeight() {
+            return 1;
+        }
+    };
+
+    public static void main(String[] args) {
+        TextBuffer buffer = new TextBuffer("abcdefgh\nmmx\n".toCharArray());
+        final Layout layout = new Layout(buffer, METRICS, 5);
+        buffer.addListener(new TextBufferListener() {
+            @Override
+            public void textChanged(int offset, int removed, int inserted) {
+                layout.update(offset, removed, inserted);
+            }
+        });
+        checkStarts(layout, 0, 5, 9, 10, 13);
+        check(layout.lineEnd(0) == 4 && layout.lineEnd(2) == 9, "line ends");
+        check(layout.lineOf(5) == 1 && layout.lineOf(4) == 0, "shared offset belongs to the line below");
+
+        // Glyph positions of a line, the last entry is the right edge
+        int count = layout.positionGlyphs(3);
+        double[] x = layout.getGlyphX();
+        check(count == 3 && x[0] == 0 && x[1] == 3 && x[2] == 4 && x[3] == 4, "glyph positions");
+        check(layout.offsetAt(3, 2.9) == 11 && layout.xOf(12) == 4, "hit testing");
+
+        // Edits only rewrap until the old wrapping is met again
+        buffer.insert(1, "XY");
+        checkStarts(layout, 0, 5, 11, 12, 15);
+        buffer.delete(0, 4);
+        check(buffer.toString().equals("cdefgh\nmmx\n"), buffer.toString());
+        checkStarts(layout, 0, 5, 7, 8, 11);
+
+        // Rewrapping in parallel gives the same lines as rewrapping on the calling thread
+        layout.setWrapWidth(3);
+        layout.reflowAll();
+        int[] starts = layout.wrap(buffer.snapshot(), layout.paragraphStarts(3), 3);
+        check(starts.length == layout.lineCount(), "parallel line count");
+        for (int i = 0; i < starts.length; i++) {
+            check(starts[i] == layout.lineStart(i), "parallel line " + i);
+        }
+
+        // Lines wrapped from a snapshot catch up with the edits made since with a single update
+        TextBuffer edited = new TextBuffer("abcdefgh\nmmx\nabcdefgh\nmm\n".toCharArray());
+        final Layout following = new Layout(edited, METRICS, 5);
+        edited.addListener(new TextBufferListener() {
+            @Override
+            public void textChanged(int offset, int removed, int inserted) {
+                following.update(offset, removed, inserted);
+            }
+        });
+        PieceTable.Snapshot snapshot = edited.snapshot();
+        int[] wrapped = following.wrap(snapshot, following.paragraphStarts(2), 3);
+        edited.insert(11, "mmmm");
+        edited.delete(2, 3);
+        // Chars [2, 12) of the edited buffer were [2, 11) of the snapshot
+        following.setLineStarts(wrapped, 3, snapshot.length());
+        following.update(2, 9, 10);
+        Layout fresh = new Layout(edited, METRICS, 3);
+        check(following.lineCount() == fresh.lineCount(), "caught up line count");
+        for (int i = 0; i < fresh.lineCount(); i++) {
+            check(following.lineStart(i) == fresh.lineStart(i), "caught up line " + i);
+        }
+
+        // A tab reaches the next tab stop, hit testing and wrapping agree with its width
+        TextBuffer tabbed = new TextBuffer("a\tb\tc\tmd\n\tx".toCharArray());
+        final Layout tabs = new Layout(tabbed, METRICS, 10);
+        tabbed.addListener(new TextBufferListener() {
+            @Override
+            public void textChanged(int offset, int removed, int inserted) {
+                tabs.update(offset, removed, inserted);
+            }
+        });
+        count = tabs.positionGlyphs(0);
+        x = tabs.getGlyphX();
+        check(count == 5 && x[1] == 1 && x[2] == 4 && x[3] == 5 && x[4] == 8 && x[5] == 9, "tab stops");
+        check(tabs.xOf(4) == 8 && tabs.offsetAt(0, 2.4) == 1 && tabs.offsetAt(0, 2.6) == 2, "hit testing tabs");
+        checkStarts(tabs, 0, 5, 9);
+        check(tabs.xOf(6) == 4, "tab at the start of a wrapped line");
+        tabbed.insert(0, "m"); // moves every tab stop after it
+        checkStarts(tabs, 0, 4, 7, 10);
+
+        // Without wrapping a long line is only positioned up to the right edge
+        Layout unwrapped = new Layout(new TextBuffer("abcdefghij".toCharArray()), METRICS, 4, false);
+        check(unwrapped.lineCount() == 1 && unwrapped.positionGlyphs(0) == 5, "clipped line");
+        System.out.println("LayoutTest passed");
+    }
+
+    private static void checkStarts(Layout layout, int... starts) {
+        check(layout.lineCount() == starts.length, "line count " + layout.lineCount());
+        for (int i = 0; i < starts.length; i++) {
+            check(layout.lineStart(i) == starts[i], "line " + i + " starts at " + layout.lineStart(i));
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LineView class is a Renderer with one Text node per visual line instead of one per char
+ *
+ * 	nodes: pool of Text nodes, line i of the viewport is shown by node i % nodes.size(), so
+ * 		scrolling only updates the nodes of the lines scrolled in
+ * 	group: Group in the scene graph holding the pool, translated vertically to scroll
+ * 	firstMaterialized, lastMaterialized: range of lines currently backed by nodes
+ *
+ * A node keeps its text until the chars of its line change, they are compared with the
+ * buffer before anything is set, so typing only updates the node of the line typed on. With
+ * lines of prose that is 50 to 80 times fewer nodes than TextView.
+ */
+public class LineView implements Renderer {
+    /** Number of lines materialized above and below the viewport */
+    private static final int OVERSCAN = 5;
+
+    private final TextBuffer buffer;
+    private final Font font;
+    private final double x;
+    private final double y;
+    private final double lineHeight;
+    private final Group group;
+    private final List<Text> nodes;
+    private final StringBuilder line;
+    private int firstMaterialized;
+    private int lastMaterialized;
+    private boolean dirty;
+
+    /** Creates a view whose text is drawn with its top left corner at (x, y) */
+    public LineView(TextBuffer buffer, Font font, double x, double y, double lineHeight) {
+        this.buffer = buffer;
+        this.font = font;
+        this.x = x;
+        this.y = y;
+        this.lineHeight = lineHeight;
+        group = new Group();
+        nodes = new ArrayList<>();
+        line = new StringBuilder();
+        dirty = true;
+    }
+
+    @Override
+    public Node getNode() {
+        return group;
+    }
+
+    /** Nodes don't need to know the size of the window, the group is clipped by it */
+    @Override
+    public void setSize(double width, double height) {
+    }
+
+    @Override
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * Shows visibleLines lines starting at firstLine, plus the partially visible line below
+     * Scrolling within the overscan only moves the group, anything else rematerializes
+     * Returns the number of Text nodes updated, 0 if the group was only moved
+     */
+    @Override
+    public int render(Layout layout, int firstLine, int visibleLines) {
+        group.setLayoutY(y - firstLine * lineHeight);
+        int lastLine = Math.min(firstLine + visibleLines, layout.lineCount() - 1);
+        if (dirty || firstLine < firstMaterialized || lastLine > lastMaterialized) {
+            return materialize(layout, Math.max(0, firstLine - OVERSCAN),
+                    Math.min(lastLine + OVERSCAN, layout.lineCount() - 1));
+        }
+        return 0;
+    }
+
+    /** Number of Text nodes in the scene graph, visible or not */
+    @Override
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    /** Backs the lines from first to last with nodes, returns the number of nodes updated */
+    private int materialize(Layout layout, int first, int last) {
+        int count = last - first + 1;
+        while (nodes.size() < count) {
+            Text text = new Text();
+            text.setTextOrigin(VPos.TOP);
+            text.setFont(font);
+            text.setX(x);
+            nodes.add(text);
+            group.getChildren().add(text);
+        }
+        int touched = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            int visualLine = first + Math.floorMod(i - first, nodes.size());
+            Text text = nodes.get(i);
+            if (visualLine > last) {
+                if (text.isVisible()) {
+                    text.setVisible(false);
+                    touched++;
+                }
+                continue;
+            }
+            boolean changed = !text.isVisible() || text.getY() != visualLine * lineHeight;
+            if (readLine(layout, visualLine, text.getText())) {
+                text.setText(line.toString());
+                changed = true;
+            }
+            if (changed) {
+                text.setY(visualLine * lineHeight);
+                text.setVisible(true);
+                touched++;
+            }
+        }
+        firstMaterialized = first;
+        lastMaterialized = last;
+        dirty = false;
+        return touched;
+    }
+
+    /**
+     * Reads the chars of visualLine that Layout positions into line, without its newline
+     * Returns whether they differ from shown, the text of the node showing the line
+     */
+    private boolean readLine(Layout layout, int visualLine, String shown) {
+        // Unwrapped lines can be arbitrarily long, only the chars up to the right edge are read
+        int count = layout.positionGlyphs(visualLine);
+        int start = layout.lineStart(visualLine);
+        line.setLength(0);
+        boolean differs = false;
+        for (int i = 0; i < count; i++) {
+            char c = buffer.charAt(start + i);
+            if (c != '\n') {
+                differs |= line.length() >= shown.length() || shown.charAt(line.length()) != c;
+                line.append(c);
+            }
+        }
+        return differs || line.length() != shown.length();
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+ * LocalEdits class keeps the edits made to a buffer since it was last saved, so that a change
+ * another program makes to the file, found by a FileFingerprint, can be carried over into the
+ * buffer around them
+ *
+ * 	edits: offset, removed and inserted chars of every edit, in the order they were made
+ * 	count: number of edits
+ *
+ * The offset of an edit is relative to the buffer as the edits before it left it. Chars of
+ * the file as of the last save are followed through the edits in order to find them in the
+ * buffer, which only works as long as no edit touches them.
+ */
+public class LocalEdits {
+    private int[] edits;
+    private int count;
+
+    public LocalEdits() {
+        edits = new int[48];
+        count = 0;
+    }
+
+    /** Records that removed chars at offset were replaced by inserted chars */
+    public void add(int offset, int removed, int inserted) {
+        if (3 * count == edits.length) {
+            edits = Arrays.copyOf(edits, edits.length * 2);
+        }
+        edits[3 * count] = offset;
+        edits[3 * count + 1] = removed;
+        edits[3 * count + 2] = inserted;
+        count++;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /** Forgets the first saved edits, which are in the file now */
+    public void saved(int saved) {
+        System.arraycopy(edits, 3 * saved, edits, 0, 3 * (count - saved));
+        count -= saved;
+    }
+
+    /** Returns the number of chars the buffer had when it was last saved, it has bufferLength now */
+    public int savedLength(int bufferLength) {
+        int length = bufferLength;
+        for (int i = 0; i < 3 * count; i += 3) {
+            length -= edits[i + 2] - edits[i + 1];
+        }
+        return length;
+    }
+
+    /**
+     * Returns where the chars [start, end) of the file as of the last save are in the buffer,
+     * which has bufferLength chars, as {start, end}, or null if an edit touched them
+     * An end of -1 stands for the end of the file. An edit right before start or right after
+     * end doesn't touch them.
+     */
+    public int[] map(int start, int end, int bufferLength) {
+        if (end < 0) {
+            end = savedLength(bufferLength);
+        }
+        for (int i = 0; i < 3 * count; i += 3) {
+            int offset = edits[i];
+            int removed = edits[i + 1];
+            if (offset + removed <= start) {
+                start += edits[i + 2] - removed;
+                end += edits[i + 2] - removed;
+            } else if (offset < end) {
+                return null;
+            }
+        }
+        return new int[] {start, end};
+    }
+
+    /**
+     * Returns the chars the edits changed as a single edit to the file as of the last save,
+     * the buffer having bufferLength chars: chars [start, end) of the file were replaced by
+     * chars [start, bufferEnd) of the buffer, as {start, end, bufferEnd}, or null if there
+     * are no edits. Chars outside of it were never touched by any edit.
+     */
+    public int[] span(int bufferLength) {
+        if (count == 0) {
+            return null;
+        }
+        int savedLength = savedLength(bufferLength);
+        int length = savedLength;
+        int start = length; // chars before start are untouched
+        int untouchedEnd = length; // and so are the last untouchedEnd chars
+        for (int i = 0; i < 3 * count; i += 3) {
+            int offset = edits[i];
+            start = Math.min(start, offset);
+            untouchedEnd = Math.min(untouchedEnd, length - offset - edits[i + 1]);
+            length += edits[i + 2] - edits[i + 1];
+        }
+        untouchedEnd = Math.min(untouchedEnd, Math.min(savedLength, bufferLength) - start);
+        return new int[] {start, savedLength - untouchedEnd, bufferLength - untouchedEnd};
+    }
+
+    /**
+     * Makes the edits relative to the file once the chars of its last saved version starting
+     * at start were changed, delta chars being added, as found by map. Edits before the change
+     * stay where they are, those after it move along.
+     */
+    public void rebase(int start, int delta) {
+        for (int i = 0; i < 3 * count; i += 3) {
+            if (edits[i] + edits[i + 1] <= start) {
+                start += edits[i + 2] - edits[i + 1];
+            } else {
+                edits[i] += delta;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+public class LocalEditsTest {
+    public static void main(String[] args) {
+        // The file saved as "abcdefgh", 8 chars
+
+        // An edit before the change: "aXYbcdefgh", the change to "ef" moves along
+        LocalEdits edits = new LocalEdits();
+        edits.add(1, 0, 2);
+        check(edits.savedLength(10) == 8, "saved length");
+        check(same(edits.map(4, 6, 10), 6, 8), "edit before");
+        edits.rebase(4, 1); // "ef" became "eef" in the file
+        check(same(edits.map(0, 1, 11), 0, 1), "edit before stays");
+        check(same(edits.map(4, 7, 11), 6, 9), "edit before, rebased");
+
+        // An edit after the change: "abcdefXYgh", the change to "bc" stays, the edit moves along
+        edits = new LocalEdits();
+        edits.add(6, 0, 2);
+        check(same(edits.map(1, 3, 10), 1, 3), "edit after");
+        edits.rebase(1, -1); // "bc" became "c" in the file, which is now "acdefgh"
+        check(edits.savedLength(9) == 7, "saved length, rebased");
+        check(same(edits.map(5, 7, 9), 7, 9), "edit after, rebased");
+        check(edits.map(4, 6, 9) == null, "edit after, moved along");
+
+        // An edit overlapping the change: "abgh", either end of the change overlaps
+        edits = new LocalEdits();
+        edits.add(2, 4, 0);
+        check(edits.map(3, 5, 4) == null, "inside");
+        check(edits.map(1, 3, 4) == null, "start");
+        check(edits.map(5, 7, 4) == null, "end");
+        check(same(edits.map(0, 2, 4), 0, 2), "right before");
+        check(same(edits.map(6, 8, 4), 2, 4), "right after");
+
+        // A change running to the end of the file, whose end is found through the edits
+        edits = new LocalEdits();
+        edits.add(1, 0, 2);
+        edits.add(0, 1, 0); // "XYbcdefgh"
+        check(same(edits.map(5, -1, 9), 6, 9), "to the end");
+        edits.add(9, 0, 1); // typed at the end, it isn't part of the change
+        check(same(edits.map(5, -1, 10), 6, 9), "to the end, typed after");
+
+        // All the edits as one, "XYbcdefghZ" from "abcdefgh" replaces "a" by "XY" and "" by "Z"
+        check(same3(edits.span(10), 0, 8, 10), "span");
+        LocalEdits middle = new LocalEdits();
+        check(middle.span(8) == null, "no span");
+        middle.add(5, 1, 0);
+        middle.add(2, 0, 3); // "abXYZcdegh"
+        middle.add(3, 1, 0); // "abXZcdegh"
+        check(same3(middle.span(9), 2, 6, 7), "span in the middle");
+
+        // Saved edits are forgotten, the others are now relative to the saved file
+        edits.saved(2);
+        check(edits.count() == 1, "count");
+        check(edits.savedLength(10) == 9, "saved length after save");
+        check(same(edits.map(0, 2, 10), 0, 2), "after save");
+        System.out.println("LocalEditsTest passed");
+    }
+
+    private static boolean same3(int[] span, int start, int end, int bufferEnd) {
+        return span != null && span[0] == start && span[1] == end && span[2] == bufferEnd;
+    }
+
+    private static boolean same(int[] range, int start, int end) {
+        return range != null && range[0] == start && range[1] == end;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
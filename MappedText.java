@@ -0,0 +1,109 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * MappedText class exposes a file mapped with FileChannel.map as a read-only CharSequence
+ *
+ * Nothing is read up front: the OS pages bytes in as chars are accessed, so only the regions
+ * the Editor actually looks at (the viewport and the newline scan) ever get loaded.
+ * Every byte is one char (ISO-8859-1), which keeps offsets trivial to compute and lets a
+ * save write back exactly the bytes that were read.
+ *
+ * 	regions: consecutive mappings of REGION_SIZE bytes, a single mapping can't exceed 2GB
+ * 	channel: kept open so that saves can copy unchanged bytes, call close when done
+ * 	detached: set once another program changed the file, its bytes are then never read again
+ *
+ * A change made to the file in place shows through the mapping, and reading past the end of
+ * a file truncated since it was mapped faults. Once a change is found, detach stops every
+ * read: a fault can't be caught where it happens, and bytes read afterwards would no longer
+ * be the chars the newlines were found in.
+ */
+public class MappedText implements CharSequence, Closeable {
+    /** Largest file that can be mapped, offsets in the Editor are ints */
+    public static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    private static final int REGION_BITS = 30;
+    private static final int REGION_SIZE = 1 << REGION_BITS;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] regions;
+    private final int length;
+    private volatile boolean detached;
+
+    /** Maps file, anything past MAX_LENGTH bytes is left out */
+    public MappedText(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        length = (int) Math.min(channel.size(), MAX_LENGTH);
+        regions = new ByteBuffer[(int) (((long) length + REGION_SIZE - 1) >> REGION_BITS)];
+        for (int i = 0; i < regions.length; i++) {
+            long position = (long) i << REGION_BITS;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(REGION_SIZE, length - position));
+        }
+    }
+
+    /** Channel of the mapped file, byte i of it is char i */
+    public FileChannel channel() {
+        return channel;
+    }
+
+    /** Stops reading the file, every char reads as a space from then on, call once it changed */
+    public void detach() {
+        detached = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (detached) {
+            return ' ';
+        }
+        return (char) (regions[index >>> REGION_BITS].get(index & (REGION_SIZE - 1)) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(charAt(i));
+        }
+        return sb;
+    }
+
+    /**
+     * Returns the positions of the '\n's in [start, end), in increasing order
+     * Safe to call off the FX thread, reading a mapping doesn't change any state
+     */
+    public int[] newlinesIn(int start, int end) {
+        int[] newlines = new int[64];
+        int found = 0;
+        for (int i = start; i < end; i++) {
+            if (regions[i >>> REGION_BITS].get(i & (REGION_SIZE - 1)) == '\n') {
+                if (found == newlines.length) {
+                    newlines = Arrays.copyOf(newlines, newlines.length * 2);
+                }
+                newlines[found++] = i;
+            }
+        }
+        return Arrays.copyOf(newlines, found);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+}
@@ -0,0 +1,916 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * PieceTable class is a piece table used to store the characters within the Editor
+ *
+ * Storage:
+ * 	original: read-only buffer holding the text the table was created with, either a char[]
+ * 		or a lazily paged source such as MappedText that grows through appendOriginal
+ * 	added: append-only buffer holding every character typed since
+ * 	pieces: descriptors (source, start, length) that spell out the document in order
+ *
+ * Each character costs 2 bytes in either original or added. Typing at the end of the
+ * most recently added piece only grows that piece, so a keystroke allocates nothing
+ * besides the occasional doubling of the added buffer.
+ *
+ * Pieces are kept in a treap ordered by position. Every node tracks the number of chars
+ * and newlines in its subtree, and each buffer keeps the sorted positions of its newlines,
+ * so offset lookup, (line, column) lookup and insert/delete at an offset are all O(log n)
+ * no matter how large the document is.
+ *
+ * Mirrors the cursor/traverser operations of TextBuffer, except positions are char
+ * offsets rather than nodes:
+ * 	curr: number of chars before the cursor, the char at curr - 1 is the one the cursor is adj to
+ * 	traverser: offset used to traverse the table without moving curr
+ * An offset of 0 plays the role of the sentinel.
+ */
+public class PieceTable {
+    /** Returned by the char accessors when there is no char at that position */
+    public static final int NONE = -1;
+
+    private static final byte ORIGINAL = 0;
+    private static final byte ADDED = 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final CharSequence original;
+    private int originalLength; // number of chars of original that are part of the table
+    private int[] originalNewlines;
+    private int originalNewlineCount;
+    private char[] added;
+    private int addedLength;
+    private int[] addedNewlines;
+    private int addedNewlineCount;
+
+    private Node root;
+    private final Random random;
+
+    private int curr;
+    private int traverser;
+    private int temp;
+
+    // Last piece looked up and the offset it starts at, traversal is mostly sequential
+    private Node cachedNode;
+    private int cachedNodeOffset;
+
+    // Results of split(), kept in fields so that splitting doesn't allocate
+    private Node splitLeft;
+    private Node splitRight;
+
+    public PieceTable() {
+        this(new char[0]);
+    }
+
+    /** Creates a table whose original buffer is text, text must not be modified afterwards */
+    public PieceTable(char[] text) {
+        this(CharBuffer.wrap(text), text.length);
+    }
+
+    /**
+     * Creates a table holding the first length chars of original, more of it can be added
+     * later with appendOriginal. original must not be modified afterwards.
+     */
+    public PieceTable(CharSequence original, int length) {
+        this.original = original;
+        originalLength = length;
+        originalNewlineCount = 0;
+        for (int i = 0; i < length; i++) {
+            if (original.charAt(i) == '\n') {
+                originalNewlineCount++;
+            }
+        }
+        originalNewlines = new int[Math.max(INITIAL_CAPACITY, originalNewlineCount)];
+        for (int i = 0, j = 0; i < length; i++) {
+            if (original.charAt(i) == '\n') {
+                originalNewlines[j++] = i;
+            }
+        }
+        added = new char[INITIAL_CAPACITY];
+        addedLength = 0;
+        addedNewlines = new int[INITIAL_CAPACITY];
+        addedNewlineCount = 0;
+
+        random = new Random();
+        root = length > 0 ? newNode(ORIGINAL, 0, length) : null;
+        curr = 0;
+        traverser = 0;
+        temp = 0;
+        cachedNode = null;
+    }
+
+    /**
+     * Adds c right after curr
+     * Adding can only occur after curr
+     * curr points to the char that was just typed
+     */
+    public void add(char c) {
+        insert(curr, c);
+        curr++;
+        traverser = curr;
+    }
+
+    /**
+     * Removes the char at curr, i.e. the char right before the cursor
+     * Removing can only occur before curr
+     */
+    public void remove() {
+        if (curr != 0) {
+            delete(curr - 1, 1);
+            curr--;
+            traverser = curr;
+        }
+    }
+
+    /** Moves curr to the next char */
+    public void nextCurr() {
+        if (curr < length()) {
+            curr++;
+        }
+        traverser = curr;
+    }
+
+    /** Moves curr to the prev char */
+    public void prevCurr() {
+        if (curr > 0) {
+            curr--;
+        }
+        traverser = curr;
+    }
+
+    /** Returns the char at curr or NONE if curr is at the sentinel */
+    public int currChar() {
+        return curr == 0 ? NONE : charAt(curr - 1);
+    }
+
+    /** Returns the char next to curr or NONE if curr is the last char */
+    public int nextChar() {
+        return curr == length() ? NONE : charAt(curr);
+    }
+
+    /** Returns the char prev to curr or NONE if there is none */
+    public int prevChar() {
+        return curr < 2 ? NONE : charAt(curr - 2);
+    }
+
+    public void currToSentinel() {
+        temp = curr;
+        curr = 0;
+        traverser = curr;
+    }
+
+    public void resetCurr() {
+        curr = temp;
+        temp = 0;
+        traverser = curr;
+    }
+
+    /** Returns the number of chars before the cursor */
+    public int currOffset() {
+        return curr;
+    }
+
+    /** Moves curr so that offset chars are before the cursor */
+    public void setCurr(int offset) {
+        checkOffset(offset, length());
+        curr = offset;
+        traverser = curr;
+    }
+
+    public int length() {
+        return length(root);
+    }
+
+    /** Returns the char at offset, offset must be within [0, length) */
+    public char charAt(int offset) {
+        checkOffset(offset, length() - 1);
+        Node node = findNode(offset);
+        int index = node.start + offset - cachedNodeOffset;
+        return node.source == ORIGINAL ? original.charAt(index) : added[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length());
+        appendTo(root, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Returns an immutable copy of the current contents that is safe to read from any thread
+     * Both buffers are append-only, so only the piece descriptors are copied: O(pieces)
+     */
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot(original, added, length());
+        addPieces(root, snapshot);
+        return snapshot;
+    }
+
+
+    /***************************************************************
+     * The following methods are all based on the traverser pointer*
+     **************************************************************/
+
+
+    /** Returns whether there is a next char based on traverser pointer */
+    public boolean hasNextTrav() {
+        return traverser < length();
+    }
+
+    /** Returns whether there is a prev char based on traverser pointer */
+    public boolean hasPrevTrav() {
+        return traverser > 1;
+    }
+
+    /**
+     * Moves traverser pointer to next char and returns it
+     * Only call this method after calling hasNextTrav()
+     */
+    public char nextTrav() {
+        traverser++;
+        return charAt(traverser - 1);
+    }
+
+    /**
+     * Moves traverser pointer to prev char and returns it
+     * Only call this method after calling hasPrevTrav()
+     */
+    public char prevTrav() {
+        traverser--;
+        return charAt(traverser - 1);
+    }
+
+    public void resetTrav() {
+        traverser = curr;
+    }
+
+
+    /*************************************************
+     * Offset based editing, O(log n) in the pieces *
+     ************************************************/
+
+
+    /** Inserts c so that it ends up at offset */
+    public void insert(int offset, char c) {
+        checkOffset(offset, length());
+        appendAdded(c);
+        if (!growLastAdded(root, offset, 1, c == '\n' ? 1 : 0)) {
+            insertNode(offset, newNode(ADDED, addedLength - 1, 1));
+        }
+        cachedNode = null;
+    }
+
+    /** Inserts text so that its first char ends up at offset */
+    public void insert(int offset, CharSequence text) {
+        checkOffset(offset, length());
+        if (text.length() == 0) {
+            return;
+        }
+        int start = addedLength;
+        int newlines = addedNewlineCount;
+        for (int i = 0; i < text.length(); i++) {
+            appendAdded(text.charAt(i));
+        }
+        if (!growLastAdded(root, offset, text.length(), addedNewlineCount - newlines)) {
+            insertNode(offset, newNode(ADDED, start, text.length()));
+        }
+        cachedNode = null;
+    }
+
+    /**
+     * Makes original chars up to end part of the table, appended at the end of the document
+     * newlines holds the positions of the '\n's in the new range, found by whoever produced it
+     */
+    public void appendOriginal(int end, int[] newlines) {
+        int start = originalLength;
+        if (end <= start) {
+            return;
+        }
+        if (originalNewlineCount + newlines.length > originalNewlines.length) {
+            originalNewlines = Arrays.copyOf(originalNewlines,
+                    Math.max(originalNewlineCount + newlines.length, originalNewlines.length * 2));
+        }
+        System.arraycopy(newlines, 0, originalNewlines, originalNewlineCount, newlines.length);
+        originalNewlineCount += newlines.length;
+        originalLength = end;
+
+        if (!growLastOriginal(root, start, end - start, newlines.length)) {
+            insertNode(length(), newNode(ORIGINAL, start, end - start));
+        }
+        cachedNode = null;
+    }
+
+    /**
+     * Returns the pieces spelling out the count chars starting at offset, without copying them,
+     * so that they can be put back later with insert. O(log n) plus the number of pieces.
+     */
+    public Span span(int offset, int count) {
+        checkOffset(offset, length());
+        checkOffset(offset + count, length());
+        Span span = new Span();
+        addPieces(root, offset, offset + count, span);
+        return span;
+    }
+
+    /** Inserts the chars of span, taken from this table, so that its first char ends up at offset */
+    public void insert(int offset, Span span) {
+        checkOffset(offset, length());
+        Node pieces = null;
+        for (int i = 0; i < span.count; i++) {
+            pieces = merge(pieces, newNode(span.sources[i], span.starts[i], span.lengths[i]));
+        }
+        if (pieces != null) {
+            split(root, offset);
+            Node right = splitRight;
+            root = merge(merge(splitLeft, pieces), right);
+        }
+        cachedNode = null;
+    }
+
+    /** Deletes the count chars starting at offset */
+    public void delete(int offset, int count) {
+        checkOffset(offset, length());
+        checkOffset(offset + count, length());
+        if (count == 0) {
+            return;
+        }
+        if (count > 1 || !shrinkAtEdge(root, offset)) {
+            split(root, offset);
+            Node left = splitLeft;
+            split(splitRight, count);
+            root = merge(left, splitRight);
+        }
+        cachedNode = null;
+    }
+
+
+    /***************************
+     * Line and column lookups *
+     **************************/
+
+
+    /** Returns the number of lines, which is always one more than the number of newlines */
+    public int lineCount() {
+        return newlines(root) + 1;
+    }
+
+    /** Returns the offset of the first char of line */
+    public int lineStart(int line) {
+        if (line < 0 || line >= lineCount()) {
+            throw new IndexOutOfBoundsException("line " + line + ", line count " + lineCount());
+        }
+        if (line == 0) {
+            return 0;
+        }
+        // Looking for the offset right after the line-th newline
+        Node node = root;
+        int base = 0;
+        int remaining = line;
+        while (true) {
+            int leftNewlines = newlines(node.left);
+            if (remaining <= leftNewlines) {
+                node = node.left;
+            } else if (remaining <= leftNewlines + node.newlines) {
+                int[] positions = newlinePositions(node.source);
+                int index = lowerBound(positions, newlineCount(node.source), node.start)
+                        + remaining - leftNewlines - 1;
+                return base + length(node.left) + positions[index] - node.start + 1;
+            } else {
+                remaining -= leftNewlines + node.newlines;
+                base += length(node.left) + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    /** Returns the offset right after the last char of line, excluding its newline */
+    public int lineEnd(int line) {
+        return line == lineCount() - 1 ? length() : lineStart(line + 1) - 1;
+    }
+
+    /** Returns the line containing offset, an offset right after a newline is on the next line */
+    public int lineOf(int offset) {
+        checkOffset(offset, length());
+        Node node = root;
+        int line = 0;
+        while (node != null) {
+            int leftLength = length(node.left);
+            if (offset < leftLength) {
+                node = node.left;
+            } else if (offset < leftLength + node.length) {
+                return line + newlines(node.left)
+                        + countNewlines(node.source, node.start, node.start + offset - leftLength);
+            } else {
+                offset -= leftLength + node.length;
+                line += newlines(node.left) + node.newlines;
+                node = node.right;
+            }
+        }
+        return line;
+    }
+
+    /** Returns the column of offset within its line */
+    public int columnOf(int offset) {
+        return offset - lineStart(lineOf(offset));
+    }
+
+    /** Returns the offset at (line, column), clamping column to the end of the line */
+    public int offsetOf(int line, int column) {
+        return Math.min(lineStart(line) + Math.max(column, 0), lineEnd(line));
+    }
+
+
+    /*******************
+     * Treap internals *
+     ******************/
+
+
+    /** Returns the node containing offset and leaves the offset it starts at in cachedNodeOffset */
+    private Node findNode(int offset) {
+        if (cachedNode != null && offset >= cachedNodeOffset
+                && offset < cachedNodeOffset + cachedNode.length) {
+            return cachedNode;
+        }
+        Node node = root;
+        int base = 0;
+        while (true) {
+            int leftLength = length(node.left);
+            if (offset < base + leftLength) {
+                node = node.left;
+            } else if (offset < base + leftLength + node.length) {
+                cachedNode = node;
+                cachedNodeOffset = base + leftLength;
+                return node;
+            } else {
+                base += leftLength + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * If the piece ending at offset is the one last typed into, grows it by the count chars
+     * just appended to the added buffer along with the totals of every node on the path to it
+     */
+    private boolean growLastAdded(Node node, int offset, int count, int newlines) {
+        if (node == null) {
+            return false;
+        }
+        int leftLength = length(node.left);
+        boolean grown;
+        if (offset <= leftLength) {
+            grown = growLastAdded(node.left, offset, count, newlines);
+        } else if (offset == leftLength + node.length) {
+            grown = node.source == ADDED && node.start + node.length == addedLength - count;
+            if (grown) {
+                node.length += count;
+                node.newlines += newlines;
+            }
+        } else if (offset < leftLength + node.length) {
+            grown = false;
+        } else {
+            grown = growLastAdded(node.right, offset - leftLength - node.length, count, newlines);
+        }
+        if (grown) {
+            node.totalLength += count;
+            node.totalNewlines += newlines;
+        }
+        return grown;
+    }
+
+    /** Grows the last piece of the document if it ends where the original chars were cut off */
+    private boolean growLastOriginal(Node node, int originalEnd, int grownBy, int newlines) {
+        if (node == null) {
+            return false;
+        }
+        boolean grown;
+        if (node.right != null) {
+            grown = growLastOriginal(node.right, originalEnd, grownBy, newlines);
+        } else {
+            grown = node.source == ORIGINAL && node.start + node.length == originalEnd;
+            if (grown) {
+                node.length += grownBy;
+                node.newlines += newlines;
+            }
+        }
+        if (grown) {
+            node.totalLength += grownBy;
+            node.totalNewlines += newlines;
+        }
+        return grown;
+    }
+
+    /** Deletes the char at offset in place if it is the first or last char of its piece */
+    private boolean shrinkAtEdge(Node node, int offset) {
+        int leftLength = length(node.left);
+        boolean shrunk;
+        if (offset < leftLength) {
+            shrunk = shrinkAtEdge(node.left, offset);
+        } else if (offset < leftLength + node.length) {
+            int within = offset - leftLength;
+            shrunk = node.length > 1 && (within == 0 || within == node.length - 1);
+            if (shrunk) {
+                int index = node.start + within;
+                boolean newline = countNewlines(node.source, index, index + 1) == 1;
+                if (within == 0) {
+                    node.start++;
+                }
+                node.length--;
+                if (newline) {
+                    node.newlines--;
+                }
+            }
+        } else {
+            shrunk = shrinkAtEdge(node.right, offset - leftLength - node.length);
+        }
+        if (shrunk) {
+            update(node);
+        }
+        return shrunk;
+    }
+
+    private void insertNode(int offset, Node node) {
+        split(root, offset);
+        Node right = splitRight;
+        root = merge(merge(splitLeft, node), right);
+    }
+
+    /**
+     * Splits node into the pieces before offset and the pieces from offset on, leaving them in
+     * splitLeft and splitRight. A piece straddling offset is cut in two.
+     */
+    private void split(Node node, int offset) {
+        if (node == null) {
+            splitLeft = null;
+            splitRight = null;
+            return;
+        }
+        int leftLength = length(node.left);
+        if (offset <= leftLength) {
+            split(node.left, offset);
+            node.left = splitRight;
+            update(node);
+            splitRight = node;
+        } else if (offset >= leftLength + node.length) {
+            split(node.right, offset - leftLength - node.length);
+            node.right = splitLeft;
+            update(node);
+            splitLeft = node;
+        } else {
+            int within = offset - leftLength;
+            Node tail = newNode(node.source, node.start + within, node.length - within);
+            tail.right = node.right;
+            update(tail);
+            node.length = within;
+            node.newlines -= tail.newlines;
+            node.right = null;
+            update(node);
+            splitLeft = node;
+            splitRight = tail;
+        }
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private Node newNode(byte source, int start, int len) {
+        return new Node(source, start, len, countNewlines(source, start, start + len), random.nextInt());
+    }
+
+    private void appendTo(Node node, StringBuilder sb) {
+        if (node != null) {
+            appendTo(node.left, sb);
+            if (node.source == ORIGINAL) {
+                sb.append(original, node.start, node.start + node.length);
+            } else {
+                sb.append(added, node.start, node.length);
+            }
+            appendTo(node.right, sb);
+        }
+    }
+
+    private void addPieces(Node node, Snapshot snapshot) {
+        if (node != null) {
+            addPieces(node.left, snapshot);
+            snapshot.addPiece(node.source == ORIGINAL, node.start, node.length);
+            addPieces(node.right, snapshot);
+        }
+    }
+
+    /** Adds the parts of the pieces under node within [from, to) of its subtree to span, in order */
+    private static void addPieces(Node node, int from, int to, Span span) {
+        if (node == null || from >= to) {
+            return;
+        }
+        int leftLength = length(node.left);
+        if (from < leftLength) {
+            addPieces(node.left, from, Math.min(to, leftLength), span);
+        }
+        int pieceFrom = Math.max(from, leftLength);
+        int pieceTo = Math.min(to, leftLength + node.length);
+        if (pieceFrom < pieceTo) {
+            span.add(node.source, node.start + pieceFrom - leftLength, pieceTo - pieceFrom);
+        }
+        int rightStart = leftLength + node.length;
+        if (to > rightStart) {
+            addPieces(node.right, Math.max(0, from - rightStart), to - rightStart, span);
+        }
+    }
+
+    private static void update(Node node) {
+        node.totalLength = length(node.left) + node.length + length(node.right);
+        node.totalNewlines = newlines(node.left) + node.newlines + newlines(node.right);
+    }
+
+    private static int length(Node node) {
+        return node == null ? 0 : node.totalLength;
+    }
+
+    private static int newlines(Node node) {
+        return node == null ? 0 : node.totalNewlines;
+    }
+
+    private static void checkOffset(int offset, int max) {
+        if (offset < 0 || offset > max) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", max " + max);
+        }
+    }
+
+
+    /**********************
+     * Buffer bookkeeping *
+     *********************/
+
+
+    private void appendAdded(char c) {
+        if (addedLength == added.length) {
+            added = Arrays.copyOf(added, added.length * 2);
+        }
+        if (c == '\n') {
+            if (addedNewlineCount == addedNewlines.length) {
+                addedNewlines = Arrays.copyOf(addedNewlines, addedNewlines.length * 2);
+            }
+            addedNewlines[addedNewlineCount++] = addedLength;
+        }
+        added[addedLength++] = c;
+    }
+
+    /** Returns the number of newlines in [start, end) of the given buffer */
+    private int countNewlines(byte source, int start, int end) {
+        int[] positions = newlinePositions(source);
+        int count = newlineCount(source);
+        return lowerBound(positions, count, end) - lowerBound(positions, count, start);
+    }
+
+    private int[] newlinePositions(byte source) {
+        return source == ORIGINAL ? originalNewlines : addedNewlines;
+    }
+
+    private int newlineCount(byte source) {
+        return source == ORIGINAL ? originalNewlineCount : addedNewlineCount;
+    }
+
+    /** Returns the first index in positions[0, count) whose value is >= key */
+    private static int lowerBound(int[] positions, int count, int key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (positions[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Nested Node Class used as the pieces of the treap */
+    private static class Node {
+        Node left;
+        Node right;
+        final int priority;
+        final byte source;
+        int start;
+        int length;
+        int newlines;
+        int totalLength;
+        int totalNewlines;
+
+        Node(byte source, int start, int length, int newlines, int priority) {
+            this.source = source;
+            this.start = start;
+            this.length = length;
+            this.newlines = newlines;
+            this.priority = priority;
+            totalLength = length;
+            totalNewlines = newlines;
+        }
+    }
+
+    /**
+     * Pieces spelling out a range of chars of a PieceTable, what the undo history keeps of the
+     * chars an edit removed. Nothing is copied: both buffers are append-only, so the pieces
+     * read the same chars for as long as the table lives, and a span costs a few bytes per
+     * piece however many chars it holds.
+     */
+    public static class Span {
+        /** Approximate number of bytes a piece takes */
+        public static final int PIECE_SIZE = 9;
+
+        private byte[] sources;
+        private int[] starts;
+        private int[] lengths;
+        private int count;
+        private int length;
+
+        Span() {
+            sources = new byte[2];
+            starts = new int[2];
+            lengths = new int[2];
+        }
+
+        /** Returns the number of chars */
+        public int length() {
+            return length;
+        }
+
+        public int pieceCount() {
+            return count;
+        }
+
+        /** Returns the chars of first followed by those of second, pieces that meet are joined */
+        public static Span join(Span first, Span second) {
+            Span joined = new Span();
+            for (int i = 0; i < first.count; i++) {
+                joined.add(first.sources[i], first.starts[i], first.lengths[i]);
+            }
+            for (int i = 0; i < second.count; i++) {
+                joined.add(second.sources[i], second.starts[i], second.lengths[i]);
+            }
+            return joined;
+        }
+
+        /** Adds len chars of source at start, growing the last piece if they follow it in the buffer */
+        private void add(byte source, int start, int len) {
+            length += len;
+            if (count > 0 && sources[count - 1] == source && starts[count - 1] + lengths[count - 1] == start) {
+                lengths[count - 1] += len;
+                return;
+            }
+            if (count == starts.length) {
+                sources = Arrays.copyOf(sources, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                lengths = Arrays.copyOf(lengths, count * 2);
+            }
+            sources[count] = source;
+            starts[count] = start;
+            lengths[count] = len;
+            count++;
+        }
+    }
+
+    /**
+     * Immutable copy of a PieceTable's pieces at one point in time
+     * The chars themselves are shared with the table, which never overwrites them
+     */
+    public static class Snapshot implements CharSequence {
+        private final CharSequence original;
+        private final char[] originalArray; // backing array of original if it has one
+        private final char[] added;
+        private final int length;
+        private boolean[] pieceIsOriginal;
+        private int[] pieceStart;
+        private int[] pieceLength;
+        private int[] pieceOffset; // offset of the first char of each piece in the snapshot
+        private int pieceCount;
+
+        Snapshot(CharSequence original, char[] added, int length) {
+            this.original = original;
+            boolean hasArray = original instanceof CharBuffer && ((CharBuffer) original).hasArray()
+                    && ((CharBuffer) original).arrayOffset() + ((CharBuffer) original).position() == 0;
+            originalArray = hasArray ? ((CharBuffer) original).array() : null;
+            this.added = added;
+            this.length = length;
+            pieceIsOriginal = new boolean[INITIAL_CAPACITY];
+            pieceStart = new int[INITIAL_CAPACITY];
+            pieceLength = new int[INITIAL_CAPACITY];
+            pieceOffset = new int[INITIAL_CAPACITY];
+            pieceCount = 0;
+        }
+
+        private void addPiece(boolean isOriginal, int start, int len) {
+            if (pieceCount == pieceStart.length) {
+                int capacity = pieceCount * 2;
+                pieceIsOriginal = Arrays.copyOf(pieceIsOriginal, capacity);
+                pieceStart = Arrays.copyOf(pieceStart, capacity);
+                pieceLength = Arrays.copyOf(pieceLength, capacity);
+                pieceOffset = Arrays.copyOf(pieceOffset, capacity);
+            }
+            pieceOffset[pieceCount] = pieceCount == 0 ? 0
+                    : pieceOffset[pieceCount - 1] + pieceLength[pieceCount - 1];
+            pieceIsOriginal[pieceCount] = isOriginal;
+            pieceStart[pieceCount] = start;
+            pieceLength[pieceCount] = len;
+            pieceCount++;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        public int pieceCount() {
+            return pieceCount;
+        }
+
+        /** Returns whether piece holds chars of the original buffer, untouched since it was loaded */
+        public boolean isOriginal(int piece) {
+            return pieceIsOriginal[piece];
+        }
+
+        /** Returns the index of the first char of piece within its buffer */
+        public int pieceStart(int piece) {
+            return pieceStart[piece];
+        }
+
+        public int pieceLength(int piece) {
+            return pieceLength[piece];
+        }
+
+        /** Returns the offset of the first char of piece within the snapshot */
+        public int pieceOffset(int piece) {
+            return pieceOffset[piece];
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            int piece = pieceOf(index);
+            int i = pieceStart[piece] + index - pieceOffset[piece];
+            return pieceIsOriginal[piece] ? original.charAt(i) : added[i];
+        }
+
+        /** Copies the chars in [start, end) into dst starting at dstBegin */
+        public void getChars(int start, int end, char[] dst, int dstBegin) {
+            for (int piece = pieceOf(start); start < end; piece++) {
+                int from = pieceStart[piece] + start - pieceOffset[piece];
+                int count = Math.min(end, pieceOffset[piece] + pieceLength[piece]) - start;
+                if (!pieceIsOriginal[piece]) {
+                    System.arraycopy(added, from, dst, dstBegin, count);
+                } else if (originalArray != null) {
+                    System.arraycopy(originalArray, from, dst, dstBegin, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        dst[dstBegin + i] = original.charAt(from + i);
+                    }
+                }
+                start += count;
+                dstBegin += count;
+            }
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            char[] chars = new char[end - start];
+            getChars(start, end, chars, 0);
+            return CharBuffer.wrap(chars);
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+
+        /** Returns the piece containing index */
+        private int pieceOf(int index) {
+            int low = 0;
+            int high = pieceCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (pieceOffset[mid] <= index) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+    }
+}
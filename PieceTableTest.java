@@ -0,0 +1,87 @@
+public class PieceTableTest {
+    public static void main(String[] args) {
+        PieceTable table = new PieceTable("hello".toCharArray());
+        check(table.currChar() == PieceTable.NONE, "curr starts at sentinel");
+
+        // Typing in the middle of the original buffer splits its piece
+        table.nextCurr();
+        table.nextCurr();
+        table.add('X');
+        table.add('Y');
+        check(table.toString().equals("heXYllo"), table.toString());
+        check(table.currChar() == 'Y' && table.nextChar() == 'l', "curr after typing");
+
+        table.remove();
+        table.prevCurr();
+        table.remove();
+        check(table.toString().equals("hXllo"), table.toString());
+
+        // Traverser walks without moving curr
+        StringBuilder rest = new StringBuilder();
+        while (table.hasNextTrav()) {
+            rest.append(table.nextTrav());
+        }
+        table.resetTrav();
+        check(rest.toString().equals("Xllo"), rest.toString());
+        check(table.currOffset() == 1, "curr moved while traversing");
+
+        table.currToSentinel();
+        table.add('>');
+        table.resetCurr();
+        check(table.toString().equals(">hXllo"), table.toString());
+
+        while (table.nextChar() != PieceTable.NONE) {
+            table.nextCurr();
+        }
+        table.add('!');
+        check(table.toString().equals(">hXllo!"), table.toString());
+        while (table.currChar() != PieceTable.NONE) {
+            table.remove();
+        }
+        check(table.length() == 0, "all removed");
+
+        // Line and column lookups
+        PieceTable lines = new PieceTable("ab\ncd\n\nef".toCharArray());
+        lines.insert(4, "X\nY");
+        check(lines.toString().equals("ab\ncX\nYd\n\nef"), lines.toString());
+        check(lines.lineCount() == 5, "line count " + lines.lineCount());
+        check(lines.lineStart(2) == 6 && lines.lineEnd(2) == 8, "line 2 bounds");
+        check(lines.lineOf(5) == 1 && lines.lineOf(6) == 2, "lineOf around newline");
+        check(lines.columnOf(7) == 1, "column " + lines.columnOf(7));
+        check(lines.offsetOf(1, 10) == 5, "column clamped to line end");
+        lines.delete(2, 5);
+        check(lines.toString().equals("abd\n\nef"), lines.toString());
+        check(lines.lineCount() == 3 && lines.lineStart(2) == 5, "lines after delete");
+
+        // Original chars revealed lazily are appended after whatever was typed at the end
+        String source = "one\ntwo\nthree";
+        PieceTable lazy = new PieceTable(source, 4);
+        lazy.insert(4, "!");
+        lazy.appendOriginal(8, new int[] {7});
+        check(lazy.toString().equals("one\n!two\n"), lazy.toString());
+        lazy.delete(4, 1);
+        lazy.appendOriginal(source.length(), new int[0]);
+        check(lazy.toString().equals(source), lazy.toString());
+        check(lazy.lineCount() == 3 && lazy.lineStart(2) == 8, "lines after append");
+
+        // A span of pieces puts back the chars it was taken from, without copying them
+        PieceTable edited = new PieceTable("abcdef".toCharArray());
+        edited.insert(3, "XYZ");
+        PieceTable.Span span = edited.span(1, 6);
+        check(span.length() == 6 && span.pieceCount() == 3, "span of " + span.pieceCount() + " pieces");
+        edited.delete(1, 6);
+        check(edited.toString().equals("aef"), edited.toString());
+        edited.insert(2, span);
+        check(edited.toString().equals("aebcXYZdf"), edited.toString());
+        check(edited.lineCount() == 1 && edited.span(0, 0).pieceCount() == 0, "empty span");
+        PieceTable.Span joined = PieceTable.Span.join(edited.span(2, 2), edited.span(4, 3));
+        check(joined.length() == 5 && joined.pieceCount() == 2, "joined pieces that meet");
+        System.out.println("PieceTableTest passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import javafx.scene.Node;
+
+/**
+ * Renderer interface is how the Editor draws the lines of a Layout, so that ways of drawing
+ * text can be swapped and compared without touching the rest of the Editor
+ *
+ * Implementations only draw the text, the cursor and the highlights are overlays of the Editor.
+ */
+public interface Renderer {
+    /** Returns the node to add to the scene graph, drawn with its top left corner at (0, 0) */
+    Node getNode();
+
+    /** Sets the size of the area the text can be drawn in, that of the window */
+    void setSize(double width, double height);
+
+    /** Marks what was drawn as stale, call whenever the buffer or layout changed */
+    void invalidate();
+
+    /**
+     * Shows visibleLines lines starting at firstLine, plus the partially visible line below
+     * Returns the number of Text nodes, or lines, that had to be redrawn
+     */
+    int render(Layout layout, int firstLine, int visibleLines);
+
+    /** Number of nodes in the scene graph, visible or not */
+    int nodeCount();
+}
@@ -1,109 +1,327 @@
-import javafx.scene.text.Text;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
- * TextBuffer class is a Fast DLL used to store the text within the Editor
+ * TextBuffer class is the document model of the Editor, it stores plain chars and knows
+ * nothing about how they are rendered
+ *
+ * 	table: PieceTable holding the chars
+ * 	curr: number of chars before the cursor, the char at curr - 1 is the one the cursor is adj to
+ * 	traverser: offset used to traverse the buffer without moving curr
+ * 	listeners: notified after every edit so that views can follow along
+ * 	history: edits made through the buffer, for undo and redo
+ *
+ * Newlines are always stored as '\n'.
  */
-public class TextBuffer {
-    private Node sentinel;
-    private Node curr; // stores pointer to the current node you're at
-    private Node traverser; // pointer used to traverse the buffer
-    private Node temp;
+public class TextBuffer implements CharSequence {
+    /** Returned by the char accessors when there is no char at that position */
+    public static final int NONE = PieceTable.NONE;
+
+    private final PieceTable table;
+    private final List<TextBufferListener> listeners;
+    private final UndoHistory history;
 
     public TextBuffer() {
-        sentinel = new Node();
-        curr = sentinel;
-        traverser = curr;
-        temp = null;
+        this(new char[0]);
+    }
+
+    /** Creates a buffer holding text, text must not be modified afterwards */
+    public TextBuffer(char[] text) {
+        table = new PieceTable(text);
+        listeners = new ArrayList<>();
+        history = new UndoHistory(UndoHistory.DEFAULT_LIMIT);
+    }
+
+    /**
+     * Creates a buffer holding the first length chars of original, which is paged in lazily
+     * and can be revealed further with appendOriginal
+     */
+    public TextBuffer(CharSequence original, int length) {
+        table = new PieceTable(original, length);
+        listeners = new ArrayList<>();
+        history = new UndoHistory(UndoHistory.DEFAULT_LIMIT);
+    }
+
+    public void addListener(TextBufferListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TextBufferListener listener) {
+        listeners.remove(listener);
     }
 
     /**
-     * Adds a new node containing the text to curr.next
+     * Adds c right after curr
      * Adding can only occur after curr
-     * curr points to text that was just typed
+     * curr points to the char that was just typed
      */
-    public void add(Text text) {
-        Node toAdd = new Node(text);
-        if (curr.next == sentinel) {
-            toAdd.prev = curr;
-            toAdd.next = sentinel;
-            curr.next = toAdd;
-            sentinel.prev = toAdd;
-        } else {
-            Node next = curr.next;
-            toAdd.prev = curr;
-            toAdd.next = next;
-            next.prev = toAdd;
-            curr.next = toAdd;
-        }
-        curr = curr.next;
-        traverser = curr;
+    public void add(char c) {
+        int offset = table.currOffset();
+        table.add(c);
+        history.typed(offset, 1);
+        fireChanged(offset, 0, 1);
+    }
+
+    /** Adds text right after curr as a single edit, curr points to its last char */
+    public void add(CharSequence text) {
+        insert(table.currOffset(), text, false);
     }
 
     /**
-     * Removes node at curr.prev
+     * Adds chars typed in a burst right after curr as a single edit, curr points to the last one
+     * Unlike a pasted text, they are undone along with the chars typed right before them.
+     */
+    public void type(CharSequence text) {
+        insert(table.currOffset(), text, true);
+    }
+
+    /**
+     * Removes the char at curr, i.e. the char right before the cursor
      * Removing can only occur before curr
      */
     public void remove() {
-        if (curr != sentinel) {
-            if (curr.next == sentinel) {
-                sentinel.prev = curr.prev;
-                curr.prev.next = sentinel;
-                curr = curr.prev;
-            } else {
-                Node prev = curr.prev;
-                Node next = curr.next;
-                prev.next = next;
-                next.prev = prev;
-                curr = prev;
-            }
-            traverser = curr;
-        }
-    }
-
-    /** Moves curr pointer to next node */
-    public void nextCurr() {
-        curr = curr.next;
-        traverser = curr;
+        int offset = table.currOffset() - 1;
+        if (offset >= 0) {
+            history.deleting(offset, table.span(offset, 1));
+            table.remove();
+            fireChanged(offset, 1, 0);
+        }
     }
 
-    /** Moves curr pointer to prev node */
-    public void prevCurr() {
-        curr = curr.prev;
-        traverser = curr;
+    /** Inserts text at offset, curr moves along if it was at or after offset */
+    public void insert(int offset, CharSequence text) {
+        insert(offset, text, false);
+    }
+
+    private void insert(int offset, CharSequence text, boolean typed) {
+        if (text.length() == 0) {
+            return;
+        }
+        int curr = table.currOffset();
+        table.insert(offset, text);
+        if (curr >= offset) {
+            table.setCurr(curr + text.length());
+        }
+        if (typed) {
+            history.typed(offset, text.length());
+        } else {
+            history.inserted(offset, text.length());
+        }
+        fireChanged(offset, 0, text.length());
+    }
+
+    /** Deletes the count chars starting at offset, curr moves along if it was after offset */
+    public void delete(int offset, int count) {
+        if (count == 0) {
+            return;
+        }
+        history.deleting(offset, table.span(offset, count));
+        int curr = table.currOffset();
+        table.delete(offset, count);
+        if (curr > offset) {
+            table.setCurr(Math.max(offset, curr - count));
+        }
+        fireChanged(offset, count, 0);
+    }
+
+    /**
+     * Replaces the count chars starting at offset by text as a single edit
+     * curr moves along if it was after offset, to the end of text if it was within the chars replaced
+     */
+    public void replace(int offset, int count, CharSequence text) {
+        if (count == 0 && text.length() == 0) {
+            return;
+        }
+        history.replacing(offset, table.span(offset, count), text.length());
+        int curr = table.currOffset();
+        table.delete(offset, count);
+        table.insert(offset, text);
+        if (curr >= offset + count) {
+            table.setCurr(curr - count + text.length());
+        } else if (curr > offset) {
+            table.setCurr(offset + text.length());
+        }
+        fireChanged(offset, count, text.length());
+    }
+
+    /**
+     * Replaces every match of pattern by replacement, which can refer to the groups of the
+     * match as in Matcher.appendReplacement, and returns the number of matches replaced
+     * The chars from the start of the first match to the end of the last one are rebuilt in
+     * a single pass and swapped in as one edit, so listeners follow along once and a single
+     * undo reverts every replacement.
+     */
+    public int replaceAll(Pattern pattern, String replacement) {
+        Matcher matcher = pattern.matcher(this);
+        if (!matcher.find()) {
+            return 0;
+        }
+        int start = matcher.start();
+        int end;
+        int count = 0;
+        StringBuilder replaced = new StringBuilder();
+        do {
+            matcher.appendReplacement(replaced, replacement);
+            end = matcher.end();
+            count++;
+        } while (matcher.find());
+        replaced.delete(0, start); // appendReplacement copied the chars before the first match too
+        replace(start, end - start, replaced);
+        return count;
+    }
+
+    /**
+     * Reverts the last edit that hasn't been undone, curr moves to the end of what it restored
+     * Returns whether there was an edit to undo
+     */
+    public boolean undo() {
+        UndoHistory.Edit edit = history.undo(table);
+        if (edit == null) {
+            return false;
+        }
+        table.delete(edit.offset, edit.inserted);
+        table.insert(edit.offset, edit.removed);
+        table.setCurr(edit.offset + edit.removed.length());
+        fireChanged(edit.offset, edit.inserted, edit.removed.length());
+        return true;
+    }
+
+    /** Makes the last undone edit again, returns whether there was one */
+    public boolean redo() {
+        UndoHistory.Edit edit = history.redo();
+        if (edit == null) {
+            return false;
+        }
+        table.delete(edit.offset, edit.removed.length());
+        table.insert(edit.offset, edit.insertedPieces);
+        table.setCurr(edit.offset + edit.inserted);
+        fireChanged(edit.offset, edit.removed.length(), edit.inserted);
+        return true;
+    }
+
+    /** Sets the number of bytes the undo history may hold, see UndoHistory */
+    public void setUndoLimit(long bytes) {
+        history.setLimit(bytes);
     }
 
-    /** Returns the Text object next to curr */
-    public Text nextText() {
-        if (curr.next == sentinel) {
-            return null;
+    /**
+     * Appends text read from the file rather than typed, such as lines written to a file that
+     * is being followed, so it isn't recorded for undo. curr moves along if it was at the end.
+     */
+    public void append(CharSequence text) {
+        if (text.length() == 0) {
+            return;
         }
-        return curr.next.data;
+        int offset = table.length();
+        int curr = table.currOffset();
+        table.insert(offset, text);
+        if (curr == offset) {
+            table.setCurr(curr + text.length());
+        }
+        fireChanged(offset, 0, text.length());
     }
 
-    /** Returns the Text object prev to curr */
-    public Text prevText() {
-        if (curr.prev == sentinel) {
-            return null;
+    /** Appends the original chars up to end, see PieceTable.appendOriginal */
+    public void appendOriginal(int end, int[] newlines) {
+        int offset = table.length();
+        table.appendOriginal(end, newlines);
+        if (table.length() > offset) {
+            fireChanged(offset, 0, table.length() - offset);
         }
-        return curr.prev.data;
+    }
+
+    /** Moves curr to the next char */
+    public void nextCurr() {
+        table.nextCurr();
+    }
+
+    /** Moves curr to the prev char */
+    public void prevCurr() {
+        table.prevCurr();
+    }
+
+    /** Returns the char at curr or NONE if curr is at the beginning */
+    public int currChar() {
+        return table.currChar();
+    }
+
+    /** Returns the char next to curr or NONE if there is none */
+    public int nextChar() {
+        return table.nextChar();
+    }
+
+    /** Returns the char prev to curr or NONE if there is none */
+    public int prevChar() {
+        return table.prevChar();
     }
 
     public void currToSentinel() {
-        temp = curr;
-        curr = sentinel;
-        traverser = curr;
+        table.currToSentinel();
     }
 
     public void resetCurr() {
-        curr = temp;
-        temp = null;
-        traverser = curr;
+        table.resetCurr();
+    }
 
+    /** Returns the number of chars before the cursor */
+    public int currOffset() {
+        return table.currOffset();
     }
 
-    /** Returns the Text object at current node */
-    public Text currText() {
-        return curr.data;
+    /** Moves curr so that offset chars are before the cursor */
+    public void setCurr(int offset) {
+        table.setCurr(offset);
+    }
+
+    /** Returns the number of lines, separated by '\n' */
+    public int lineCount() {
+        return table.lineCount();
+    }
+
+    /** Returns the offset of the first char of line */
+    public int lineStart(int line) {
+        return table.lineStart(line);
+    }
+
+    /** Returns the offset right after the last char of line, excluding its newline */
+    public int lineEnd(int line) {
+        return table.lineEnd(line);
+    }
+
+    /** Returns the line containing offset */
+    public int lineOf(int offset) {
+        return table.lineOf(offset);
+    }
+
+    @Override
+    public int length() {
+        return table.length();
+    }
+
+    @Override
+    public char charAt(int offset) {
+        return table.charAt(offset);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(table.charAt(i));
+        }
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return table.toString();
+    }
+
+    /** Returns an immutable copy of the contents that can be read off the FX thread */
+    public PieceTable.Snapshot snapshot() {
+        return table.snapshot();
     }
 
 
@@ -112,59 +330,39 @@ public class TextBuffer {
      **************************************************************/
 
 
-    /** Returns whether a node has a next node based on traverser pointer */
+    /** Returns whether there is a next char based on traverser pointer */
     public boolean hasNextTrav() {
-        return traverser.next != sentinel;
+        return table.hasNextTrav();
     }
 
-    /** Returns whether a node has a prev node based on traverser pointer */
+    /** Returns whether there is a prev char based on traverser pointer */
     public boolean hasPrevTrav() {
-        return traverser.prev != sentinel;
+        return table.hasPrevTrav();
     }
 
     /**
-     * Moves traverser pointer to next node and returns its Text obj
-     * Only call this method after calling hasNext()
+     * Moves traverser pointer to next char and returns it
+     * Only call this method after calling hasNextTrav()
      */
-    public Text nextTrav() {
-        traverser = traverser.next;
-        return traverser.data;
+    public char nextTrav() {
+        return table.nextTrav();
     }
 
     /**
-     * Moves traverser pointer to prev node and returns its Text obj
-     * Only call this method after calling hasPrev()
+     * Moves traverser pointer to prev char and returns it
+     * Only call this method after calling hasPrevTrav()
      */
-    public Text prevTrav() {
-        traverser = traverser.prev;
-        return traverser.data;
+    public char prevTrav() {
+        return table.prevTrav();
     }
 
     public void resetTrav() {
-        traverser = curr;
+        table.resetTrav();
     }
 
-    /** Nested Node Class used as links in TextBuffer */
-    private static class Node {
-        Node prev;
-        Node next;
-        Text data;
-
-        /**
-         * Empty constructor for sentinel nodes
-         */
-        Node() {
-            prev = this;
-            next = this;
-            data = null;
-        }
-
-        /**
-         * Constructor for text nodes
-         */
-        Node(Text text) {
-            data = text;
+    private void fireChanged(int offset, int removed, int inserted) {
+        for (TextBufferListener listener : listeners) {
+            listener.textChanged(offset, removed, inserted);
         }
     }
-
 }
@@ -0,0 +1,10 @@
+/**
+ * Listener notified by TextBuffer after every edit
+ */
+public interface TextBufferListener {
+    /**
+     * Called after removed chars starting at offset were replaced by inserted chars,
+     * the inserted chars can be read back from the buffer at [offset, offset + inserted)
+     */
+    void textChanged(int offset, int removed, int inserted);
+}
@@ -1,16 +1,117 @@
-import javafx.scene.text.Text;
-
+import java.util.Arrays;
+import java.util.regex.Pattern;
 
 public class TextBufferTest {
     public static void main(String[] args) {
         TextBuffer buffer = new TextBuffer();
-        buffer.add(new Text("hi"));
-        buffer.add(new Text("bye"));
-        buffer.add(new Text("cya"));
+        final StringBuilder events = new StringBuilder();
+        buffer.addListener(new TextBufferListener() {
+            @Override
+            public void textChanged(int offset, int removed, int inserted) {
+                events.append(offset).append('-').append(removed).append('+').append(inserted).append(' ');
+            }
+        });
+        buffer.add('h');
+        buffer.add('b');
+        buffer.add('c');
         buffer.prevCurr();
-        buffer.add(new Text("hello"));
+        buffer.add('e');
         buffer.remove();
         buffer.nextCurr();
         buffer.remove();
+        check(buffer.toString().equals("hb"), buffer.toString());
+        check(events.toString().equals("0-0+1 1-0+1 2-0+1 2-0+1 2-1+0 2-1+0 "), events.toString());
+
+        buffer.setCurr(1);
+        buffer.insert(0, "ab\n");
+        check(buffer.currOffset() == 4 && buffer.currChar() == 'h', "curr follows insert");
+        buffer.delete(1, 3);
+        check(buffer.toString().equals("ab"), buffer.toString());
+        check(buffer.currOffset() == 1, "curr follows delete");
+
+        // A string is added as one edit, typing on after it grows the same edit
+        events.setLength(0);
+        buffer.add("xy\n");
+        buffer.add('z');
+        check(buffer.toString().equals("axy\nzb"), buffer.toString());
+        check(buffer.currOffset() == 5 && buffer.lineCount() == 2, "curr after adding a string");
+        check(events.toString().equals("1-0+3 4-0+1 "), events.toString());
+
+        // Undo and redo, typing and backspacing merge into a single edit
+        TextBuffer text = new TextBuffer("one two".toCharArray());
+        text.setCurr(3);
+        text.add('!');
+        text.type("?!");
+        text.remove();
+        text.remove();
+        text.remove();
+        text.remove();
+        check(text.toString().equals("on two"), text.toString());
+        check(text.undo() && text.toString().equals("one!?! two"), text.toString());
+        check(text.undo() && text.toString().equals("one two"), text.toString());
+        check(text.currOffset() == 3 && !text.undo(), "nothing left to undo");
+        check(text.redo() && text.toString().equals("one!?! two"), text.toString());
+        check(text.currOffset() == 6, "curr after redo");
+        text.insert(0, ">");
+        check(!text.redo() && text.toString().equals(">one!?! two"), "redo cleared by an edit");
+
+        // A paste is undone on its own, typing before or after it is not merged into it
+        TextBuffer pasted = new TextBuffer();
+        pasted.type("ab");
+        pasted.add("PASTE");
+        pasted.add('c');
+        check(pasted.undo() && pasted.toString().equals("abPASTE"), pasted.toString());
+        check(pasted.undo() && pasted.toString().equals("ab"), pasted.toString());
+        check(pasted.undo() && pasted.toString().isEmpty() && !pasted.undo(), pasted.toString());
+
+        // The oldest edits are evicted once over the limit
+        text.setUndoLimit(100);
+        text.delete(1, 3);
+        text.delete(text.length() - 3, 3);
+        check(text.undo() && text.undo() && !text.undo(), "oldest edits evicted");
+        check(text.toString().equals(">one!?! two"), text.toString());
+
+        // Replacing every match is a single edit and a single undo
+        TextBuffer doc = new TextBuffer("a1 b22 c333".toCharArray());
+        doc.setCurr(doc.length());
+        final StringBuilder changes = new StringBuilder();
+        doc.addListener(new TextBufferListener() {
+            @Override
+            public void textChanged(int offset, int removed, int inserted) {
+                changes.append(offset).append('-').append(removed).append('+').append(inserted).append(' ');
+            }
+        });
+        check(doc.replaceAll(Pattern.compile("(\\d)\\d*"), "<$1>") == 3, "matches replaced");
+        check(doc.toString().equals("a<1> b<2> c<3>"), doc.toString());
+        check(changes.toString().equals("1-10+13 "), changes.toString());
+        check(doc.currOffset() == doc.length(), "curr after replace");
+        check(doc.undo() && doc.toString().equals("a1 b22 c333"), doc.toString());
+        check(doc.redo() && doc.toString().equals("a<1> b<2> c<3>"), doc.toString());
+        check(doc.replaceAll(Pattern.compile("z"), "y") == 0, "no match");
+
+        // Replacing a large document keeps pieces rather than chars, and can always be undone
+        char[] large = new char[1 << 20];
+        Arrays.fill(large, 'a');
+        TextBuffer big = new TextBuffer(large);
+        big.setUndoLimit(16);
+        check(big.replaceAll(Pattern.compile("a{1024}"), "b") == 1024, "large replace");
+        check(big.length() == 1024 && big.undo() && big.length() == large.length, "large replace undone");
+        check(big.redo() && big.toString().equals(new String(new char[1024]).replace('\0', 'b')), "large replace redone");
+
+        // Text appended from the file follows the cursor at the end and isn't undone
+        TextBuffer log = new TextBuffer("one\n".toCharArray());
+        log.setCurr(log.length());
+        log.add('!');
+        log.append("two\n");
+        check(log.toString().equals("one\n!two\n") && log.currOffset() == log.length(), log.toString());
+        check(log.undo() && log.toString().equals("one\ntwo\n"), log.toString());
+        check(!log.undo(), "append undone");
+        System.out.println("TextBufferTest passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
     }
 }
@@ -0,0 +1,181 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * TextCodec class is how the bytes of a file map to the chars of a TextBuffer and back
+ *
+ * 	charset: UTF-16 if the file starts with a UTF-16 byte order mark, UTF-8 if it has a UTF-8
+ * 		one or is valid UTF-8, ISO-8859-1 otherwise, which maps any byte to a char and back
+ * 	bom: whether the file starts with a byte order mark, kept out of the buffer and written back
+ * 	lineSeparator: "\r\n" or "\r" if every line of the file ends that way, the buffer then
+ * 		holds '\n' and every '\n' is saved as lineSeparator, "\n" otherwise
+ *
+ * A file whose lines end in several ways keeps its '\r' chars in the buffer as is, so that
+ * saving an unedited file always writes back the bytes that were read.
+ *
+ * Decoding goes through a CharsetDecoder over the whole file at once, which runs the
+ * JDK's bulk loops over arrays instead of a char at a time, and checks the bytes are well
+ * formed UTF-8 on the way.
+ */
+public class TextCodec {
+    /** Codec of new files */
+    public static final TextCodec DEFAULT = new TextCodec(StandardCharsets.UTF_8, false, "\n");
+
+    private static final byte[] UTF_8_BOM = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+    private static final byte[] UTF_16BE_BOM = {(byte) 0xfe, (byte) 0xff};
+    private static final byte[] UTF_16LE_BOM = {(byte) 0xff, (byte) 0xfe};
+
+    private final Charset charset;
+    private final boolean bom;
+    private final String lineSeparator;
+
+    public TextCodec(Charset charset, boolean bom, String lineSeparator) {
+        this.charset = charset;
+        this.bom = bom;
+        this.lineSeparator = lineSeparator;
+    }
+
+    /** Chars decoded from the bytes of a file, and the codec to save them with */
+    public static class Decoded {
+        public final TextCodec codec;
+        public final char[] chars;
+
+        Decoded(TextCodec codec, char[] chars) {
+            this.codec = codec;
+            this.chars = chars;
+        }
+    }
+
+    /**
+     * Decodes the bytes of a file with the codec they were most likely written with, without
+     * the byte order mark and with lines ending in '\n'
+     * Bytes without a byte order mark are decoded as UTF-8 in one pass that also checks they
+     * are well formed, and decoded again as ISO-8859-1 only if they aren't.
+     */
+    public static Decoded decode(byte[] bytes) {
+        if (startsWith(bytes, UTF_8_BOM)) {
+            return decode(bytes, UTF_8_BOM.length, StandardCharsets.UTF_8, CodingErrorAction.REPLACE);
+        } else if (startsWith(bytes, UTF_16BE_BOM)) {
+            return decode(bytes, UTF_16BE_BOM.length, StandardCharsets.UTF_16BE, CodingErrorAction.REPLACE);
+        } else if (startsWith(bytes, UTF_16LE_BOM)) {
+            return decode(bytes, UTF_16LE_BOM.length, StandardCharsets.UTF_16LE, CodingErrorAction.REPLACE);
+        }
+        Decoded decoded = decode(bytes, 0, StandardCharsets.UTF_8, CodingErrorAction.REPORT);
+        return decoded != null ? decoded : decode(bytes, 0, StandardCharsets.ISO_8859_1, CodingErrorAction.REPORT);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public boolean hasBom() {
+        return bom;
+    }
+
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    /**
+     * Whether byte i of a file is char i of its buffer, so that unedited chars can be saved by
+     * copying bytes, true for ISO-8859-1 and for UTF-8 files that turned out to be ASCII
+     */
+    public boolean isOneBytePerChar(long bytes, int chars) {
+        return !bom && lineSeparator.equals("\n") && bytes == chars
+                && (charset.equals(StandardCharsets.ISO_8859_1) || charset.equals(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes bytes [start, end) of a file this codec was sniffed from, with lines ending in
+     * '\n' as in the rest of the buffer, malformed bytes are replaced
+     */
+    public char[] decode(byte[] bytes, int start, int end) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer out = CharBuffer.allocate((int) Math.ceil((end - start) * (double) decoder.maxCharsPerByte()));
+        decoder.decode(ByteBuffer.wrap(bytes, start, end - start), out, true);
+        decoder.flush(out);
+        int length = normalize(out.array(), out.position());
+        return Arrays.copyOf(out.array(), length);
+    }
+
+    /** Decodes the bytes after start, returns null if they are malformed and onError is REPORT */
+    private static Decoded decode(byte[] bytes, int start, Charset charset, CodingErrorAction onError) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(onError)
+                .onUnmappableCharacter(onError);
+        ByteBuffer in = ByteBuffer.wrap(bytes, start, bytes.length - start);
+        CharBuffer out = CharBuffer.allocate((int) Math.ceil((bytes.length - start) * (double) decoder.maxCharsPerByte()));
+        if (decoder.decode(in, out, true).isError() || decoder.flush(out).isError()) {
+            return null;
+        }
+        char[] chars = out.array();
+        TextCodec codec = new TextCodec(charset, start > 0, lineSeparatorOf(chars, out.position()));
+        int length = codec.normalize(chars, out.position());
+        return new Decoded(codec, length == chars.length ? chars : Arrays.copyOf(chars, length));
+    }
+
+    /** Replaces lineSeparator by '\n' in the first length chars, returns the length left */
+    private int normalize(char[] chars, int length) {
+        if (lineSeparator.equals("\n")) {
+            return length;
+        }
+        boolean crlf = lineSeparator.equals("\r\n");
+        int to = 0;
+        for (int from = 0; from < length; from++) {
+            char c = chars[from];
+            if (c == '\r') {
+                if (crlf && from + 1 < length && chars[from + 1] == '\n') {
+                    continue; // the '\n' that follows stands for the line ending
+                }
+                c = crlf ? c : '\n';
+            }
+            chars[to++] = c;
+        }
+        return to;
+    }
+
+    /** Returns the way every line of the first length chars ends, "\n" if they end in different ways or none do */
+    private static String lineSeparatorOf(char[] chars, int length) {
+        int crlf = 0;
+        int cr = 0;
+        int lf = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c == '\r') {
+                if (i + 1 < length && chars[i + 1] == '\n') {
+                    crlf++;
+                    i++;
+                } else {
+                    cr++;
+                }
+            } else if (c == '\n') {
+                lf++;
+            }
+        }
+        if (crlf > 0 && cr == 0 && lf == 0) {
+            return "\r\n";
+        } else if (cr > 0 && crlf == 0 && lf == 0) {
+            return "\r";
+        }
+        return "\n";
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
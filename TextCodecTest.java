@@ -0,0 +1,90 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class TextCodecTest {
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("codec", ".txt");
+        file.deleteOnExit();
+
+        // CRLF lines are '\n' in the buffer and CRLF again on disk, the BOM is kept out of the buffer
+        byte[] crlf = bytes(0xef, 0xbb, 0xbf, 'a', '\r', '\n', 0xc3, 0xa9, '\r', '\n');
+        TextCodec.Decoded decoded = TextCodec.decode(crlf);
+        TextCodec codec = decoded.codec;
+        check(codec.getCharset().equals(StandardCharsets.UTF_8) && codec.hasBom(), "UTF-8 BOM");
+        check(codec.getLineSeparator().equals("\r\n"), "CRLF");
+        char[] chars = decoded.chars;
+        check(new String(chars).equals("a\n\u00e9\n"), new String(chars));
+        check(Arrays.equals(roundTrip(codec, chars, file), crlf), "CRLF round trip");
+
+        // Lines typed into a CRLF file end in CRLF too
+        TextBuffer buffer = new TextBuffer(chars);
+        buffer.insert(2, "new\n");
+        new FileSaver(codec, null).save(buffer.snapshot(), file);
+        check(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)
+                .equals("\ufeffa\r\nnew\r\n\u00e9\r\n"), "typed line");
+
+        // Mixed line endings, a surrogate pair and a lone CR are kept as is
+        byte[] mixed = "x\r\ny\nz\r\ud83d\ude00".getBytes(StandardCharsets.UTF_8);
+        decoded = TextCodec.decode(mixed);
+        codec = decoded.codec;
+        check(codec.getLineSeparator().equals("\n") && !codec.hasBom(), "mixed line endings");
+        check(Arrays.equals(roundTrip(codec, decoded.chars, file), mixed), "mixed round trip");
+
+        // Classic Mac line endings
+        byte[] cr = bytes('a', '\r', 'b', '\r');
+        decoded = TextCodec.decode(cr);
+        codec = decoded.codec;
+        check(new String(decoded.chars).equals("a\nb\n"), "CR");
+        check(Arrays.equals(roundTrip(codec, decoded.chars, file), cr), "CR round trip");
+
+        // UTF-16 is only recognized by its BOM, lines are found in its 16 bit chars
+        byte[] utf16 = bytes(0xff, 0xfe, 'h', 0, '\r', 0, '\n', 0, 0x0d, 0x01);
+        decoded = TextCodec.decode(utf16);
+        codec = decoded.codec;
+        check(codec.getCharset().equals(StandardCharsets.UTF_16LE) && codec.getLineSeparator().equals("\r\n"), "UTF-16LE");
+        check(new String(decoded.chars).equals("h\n\u010d"), "UTF-16LE chars");
+        check(Arrays.equals(roundTrip(codec, decoded.chars, file), utf16), "UTF-16LE round trip");
+
+        // Bytes that aren't UTF-8, an overlong '/' and a lone continuation byte, are one char each
+        byte[] latin1 = bytes('a', 0xc0, 0xaf, 0x80, 0xff);
+        decoded = TextCodec.decode(latin1);
+        codec = decoded.codec;
+        check(codec.getCharset().equals(StandardCharsets.ISO_8859_1), "not UTF-8");
+        check(codec.isOneBytePerChar(latin1.length, decoded.chars.length), "one byte per char");
+        check(Arrays.equals(roundTrip(codec, decoded.chars, file), latin1), "ISO-8859-1 round trip");
+        check(!TextCodec.decode(bytes(0xe2, 0x82)).codec.getCharset().equals(StandardCharsets.UTF_8), "truncated UTF-8");
+        check(!TextCodec.decode(bytes(0xed, 0xa0, 0x80)).codec.getCharset().equals(StandardCharsets.UTF_8), "encoded surrogate");
+        check(TextCodec.decode(new byte[0]).codec.getCharset().equals(StandardCharsets.UTF_8), "empty file");
+
+        // Saving through a symbolic link replaces the file it points to, the link stays
+        File link = new File(file.getParentFile(), "link-to-" + file.getName());
+        Files.createSymbolicLink(link.toPath(), file.toPath());
+        link.deleteOnExit();
+        new FileSaver(codec, null).save(new TextBuffer("linked".toCharArray()).snapshot(), link);
+        check(Files.isSymbolicLink(link.toPath()), "symbolic link kept");
+        check(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).equals("linked"), "saved through link");
+        System.out.println("TextCodecTest passed");
+    }
+
+    private static byte[] roundTrip(TextCodec codec, char[] chars, File file) throws IOException {
+        new FileSaver(codec, null).save(new TextBuffer(chars).snapshot(), file);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
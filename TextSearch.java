@@ -0,0 +1,78 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * TextSearch class finds every occurrence of a pattern with the Boyer-Moore-Horspool algorithm
+ *
+ * 	shifts: how far the pattern slides when a char ends the window, indexed by the low byte of
+ * 		the char, chars sharing a low byte share the smallest of their shifts
+ *
+ * Only the last char of a window decides how far to skip, so most chars of the text are never
+ * looked at and the longer the pattern, the faster the search. Matching is exact, overlapping
+ * matches are all found.
+ */
+public class TextSearch {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final String pattern;
+    private final int[] shifts;
+
+    /** Creates a search for pattern, which must not be empty */
+    public TextSearch(String pattern) {
+        this.pattern = pattern;
+        int m = pattern.length();
+        shifts = new int[256];
+        Arrays.fill(shifts, m);
+        for (int i = 0; i < m - 1; i++) {
+            shifts[pattern.charAt(i) & 0xff] = m - 1 - i;
+        }
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /** Returns the first offset in [from, to) where a match lies entirely before to, or -1 */
+    public int indexOf(CharSequence text, int from, int to) {
+        int m = pattern.length();
+        int i = from;
+        while (i + m <= to) {
+            int j = m - 1;
+            while (j >= 0 && text.charAt(i + j) == pattern.charAt(j)) {
+                j--;
+            }
+            if (j < 0) {
+                return i;
+            }
+            i += shifts[text.charAt(i + m - 1) & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset of every match in text, in increasing order, or null if the calling
+     * thread was interrupted, which is how a search is cancelled. Meant to run off the FX
+     * thread: the snapshot is copied a chunk at a time into an array and searched there.
+     */
+    public int[] findAll(PieceTable.Snapshot text) {
+        int m = pattern.length();
+        char[] chunk = new char[CHUNK_SIZE + m - 1]; // consecutive chunks overlap by m - 1 chars
+        CharBuffer chars = CharBuffer.wrap(chunk);
+        int[] matches = new int[16];
+        int count = 0;
+        for (int start = 0; start < text.length(); start += CHUNK_SIZE) {
+            if (Thread.currentThread().isInterrupted()) {
+                return null;
+            }
+            int end = (int) Math.min((long) start + chunk.length, text.length());
+            text.getChars(start, end, chunk, 0);
+            for (int i = indexOf(chars, 0, end - start); i >= 0; i = indexOf(chars, i + 1, end - start)) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                }
+                matches[count++] = start + i;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+}
@@ -0,0 +1,35 @@
+public class TextSearchTest {
+    public static void main(String[] args) {
+        TextSearch search = new TextSearch("ana");
+        String text = "bananas and ananas";
+        check(search.indexOf(text, 0, text.length()) == 1, "first match");
+        check(search.indexOf(text, 2, text.length()) == 3, "overlapping match");
+        check(search.indexOf(text, 4, 7) == -1, "match must end before to");
+
+        // Matches straddling the chunks findAll copies the text in are found exactly once
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 200000) {
+            sb.append("xyz\u0161ana");
+        }
+        PieceTable table = new PieceTable(sb.toString().toCharArray());
+        table.insert(65535, "ana");
+        int[] matches = search.findAll(table.snapshot());
+        String all = table.toString();
+        int expected = 0;
+        for (int i = all.indexOf("ana"); i >= 0; i = all.indexOf("ana", i + 1)) {
+            check(matches[expected++] == i, "match " + i);
+        }
+        check(matches.length == expected, matches.length + " matches instead of " + expected);
+
+        // Chars sharing a low byte with a char of the pattern never cause a match to be skipped
+        TextSearch wide = new TextSearch("\u0161a");
+        check(wide.indexOf("aa\u0161a", 0, 4) == 2, "wide char");
+        System.out.println("TextSearchTest passed");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
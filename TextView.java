@@ -0,0 +1,141 @@
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TextView class is the default Renderer of the Editor, it is the only place Text nodes are created
+ *
+ * Virtualized: only the lines intersecting the viewport, plus OVERSCAN lines on either side,
+ * are materialized into Text nodes. Nodes are recycled from render to render, so the size of
+ * the scene graph is bounded by the size of the window rather than the size of the buffer.
+ *
+ * 	nodes: pool of Text nodes, the first usedNodes of them display a char, the rest are hidden
+ * 	group: Group in the scene graph holding the pool, translated vertically to scroll
+ * 	firstMaterialized, lastMaterialized: range of lines currently backed by nodes
+ */
+public class TextView implements Renderer {
+    /** Number of lines materialized above and below the viewport */
+    private static final int OVERSCAN = 5;
+
+    private static final String[] ASCII = new String[128];
+    static {
+        for (char c = 0; c < ASCII.length; c++) {
+            ASCII[c] = String.valueOf(c);
+        }
+    }
+
+    private final TextBuffer buffer;
+    private final Font font;
+    private final double x;
+    private final double y;
+    private final double lineHeight;
+    private final Group group;
+    private final List<Text> nodes;
+    private int usedNodes;
+    private int firstMaterialized;
+    private int lastMaterialized;
+    private boolean dirty;
+
+    /** Creates a view whose text is drawn with its top left corner at (x, y) */
+    public TextView(TextBuffer buffer, Font font, double x, double y, double lineHeight) {
+        this.buffer = buffer;
+        this.font = font;
+        this.x = x;
+        this.y = y;
+        this.lineHeight = lineHeight;
+        group = new Group();
+        nodes = new ArrayList<>();
+        usedNodes = 0;
+        dirty = true;
+    }
+
+    public Group getGroup() {
+        return group;
+    }
+
+    @Override
+    public Node getNode() {
+        return group;
+    }
+
+    /** Nodes don't need to know the size of the window, the group is clipped by it */
+    @Override
+    public void setSize(double width, double height) {
+    }
+
+    /** Marks the materialized lines as stale, call whenever the buffer or layout changed */
+    @Override
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * Shows visibleLines lines starting at firstLine, plus the partially visible line below
+     * Scrolling within the overscan only moves the group, anything else rematerializes
+     * Returns the number of Text nodes updated, 0 if the group was only moved
+     */
+    @Override
+    public int render(Layout layout, int firstLine, int visibleLines) {
+        group.setLayoutY(y - firstLine * lineHeight);
+        int lastLine = Math.min(firstLine + visibleLines, layout.lineCount() - 1);
+        if (dirty || firstLine < firstMaterialized || lastLine > lastMaterialized) {
+            return materialize(layout, Math.max(0, firstLine - OVERSCAN),
+                    Math.min(lastLine + OVERSCAN, layout.lineCount() - 1));
+        }
+        return 0;
+    }
+
+    /** Number of Text nodes in the scene graph, visible or not */
+    @Override
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    /** Backs the lines from first to last with nodes, returns the number of nodes updated */
+    private int materialize(Layout layout, int first, int last) {
+        int used = 0;
+        for (int line = first; line <= last; line++) {
+            // Unwrapped lines can be arbitrarily long, only the chars up to the right edge are positioned
+            int count = layout.positionGlyphs(line);
+            double[] glyphX = layout.getGlyphX();
+            int start = layout.lineStart(line);
+            for (int i = 0; i < count; i++) {
+                char c = buffer.charAt(start + i);
+                if (c != '\n') {
+                    Text text = nodeAt(used++);
+                    text.setText(c < ASCII.length ? ASCII[c] : String.valueOf(c));
+                    text.setX(x + glyphX[i]);
+                    text.setY(line * lineHeight);
+                }
+            }
+        }
+        for (int i = used; i < usedNodes; i++) {
+            nodes.get(i).setVisible(false);
+        }
+        int touched = Math.max(used, usedNodes);
+        usedNodes = used;
+        firstMaterialized = first;
+        lastMaterialized = last;
+        dirty = false;
+        return touched;
+    }
+
+    /** Returns the index-th node of the pool, creating it if the pool is too small */
+    private Text nodeAt(int index) {
+        if (index == nodes.size()) {
+            Text text = new Text();
+            text.setTextOrigin(VPos.TOP);
+            text.setFont(font);
+            nodes.add(text);
+            group.getChildren().add(text);
+        }
+        Text text = nodes.get(index);
+        text.setVisible(true);
+        return text;
+    }
+}
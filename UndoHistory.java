@@ -0,0 +1,170 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * UndoHistory class is the log of edits made to a TextBuffer, for undo and redo
+ *
+ * 	done: edits that can be undone, the most recent last
+ * 	undone: edits that can be redone, the most recently undone last, cleared by any new edit
+ * 	size: approximate number of bytes held by both, kept under limit by evicting the oldest edits
+ *
+ * An edit is an offset plus the chars deleted from there and the number of chars inserted
+ * in their place. Chars are never copied: deleted chars are kept as a PieceTable.Span of the
+ * pieces that held them, and inserted chars are only taken as a span once the edit is undone
+ * and they are about to be deleted. An edit costs a few bytes per piece it touches, so a
+ * replace all over a whole document is as cheap to keep as a keystroke.
+ *
+ * The newest edit is never evicted, however large it is, so the last edit can always be undone.
+ *
+ * Consecutive edits of the same kind that touch each other are merged, so a word typed or
+ * backspaced over is undone in one go, up to MAX_MERGE chars per edit. Only typed chars are
+ * merged: a paste is undone on its own, even right after typing.
+ */
+public class UndoHistory {
+    /** Default number of bytes the history may hold */
+    public static final long DEFAULT_LIMIT = Long.getLong("editor.undoLimit", 16L << 20);
+
+    private static final int MAX_MERGE = 256;
+    private static final int EDIT_SIZE = 32; // approximate bytes taken by an Edit without its spans
+
+    /** removed chars deleted from offset, and inserted chars put in their place */
+    static class Edit {
+        int offset;
+        PieceTable.Span removed;
+        int inserted;
+        PieceTable.Span insertedPieces; // only known once the edit has been undone
+        final boolean typed; // whether the inserted chars were typed, typing on can then grow the edit
+
+        Edit(int offset, PieceTable.Span removed, int inserted, boolean typed) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.typed = typed;
+        }
+
+        long size() {
+            int pieces = removed.pieceCount() + (insertedPieces == null ? 0 : insertedPieces.pieceCount());
+            return EDIT_SIZE + (long) PieceTable.Span.PIECE_SIZE * pieces;
+        }
+    }
+
+    private final Deque<Edit> done;
+    private final Deque<Edit> undone;
+    private long size;
+    private long limit;
+
+    public UndoHistory(long limit) {
+        done = new ArrayDeque<>();
+        undone = new ArrayDeque<>();
+        size = 0;
+        this.limit = limit;
+    }
+
+    /** Sets the number of bytes the history may hold, evicting the oldest edits if needed */
+    public void setLimit(long limit) {
+        this.limit = limit;
+        evict(done.isEmpty() ? undone.peekLast() : done.peekLast());
+    }
+
+    /** Records that count chars were inserted at offset, such as a paste, as an edit of its own */
+    public void inserted(int offset, int count) {
+        clearUndone();
+        push(new Edit(offset, new PieceTable.Span(), count, false));
+    }
+
+    /** Records that count chars were typed at offset, merged with the chars typed right before */
+    public void typed(int offset, int count) {
+        clearUndone();
+        Edit last = done.peekLast();
+        if (last != null && last.typed && last.removed.length() == 0 && last.insertedPieces == null
+                && last.inserted < MAX_MERGE && last.offset + last.inserted == offset) {
+            last.inserted += count;
+            return;
+        }
+        push(new Edit(offset, new PieceTable.Span(), count, true));
+    }
+
+    /** Records that the chars of removed, starting at offset, are about to be deleted */
+    public void deleting(int offset, PieceTable.Span removed) {
+        clearUndone();
+        Edit last = done.peekLast();
+        if (last != null && last.inserted == 0 && last.removed.length() < MAX_MERGE) {
+            if (offset + removed.length() == last.offset) {
+                // Backspacing, the new chars come before the ones already deleted
+                size -= last.size();
+                last.removed = PieceTable.Span.join(removed, last.removed);
+                last.offset = offset;
+                size += last.size();
+                evict(last);
+                return;
+            } else if (offset == last.offset) {
+                size -= last.size();
+                last.removed = PieceTable.Span.join(last.removed, removed);
+                size += last.size();
+                evict(last);
+                return;
+            }
+        }
+        push(new Edit(offset, removed, 0, false));
+    }
+
+    /** Records that the chars of removed, starting at offset, are about to be replaced by inserted chars */
+    public void replacing(int offset, PieceTable.Span removed, int inserted) {
+        clearUndone();
+        push(new Edit(offset, removed, inserted, false));
+    }
+
+    /**
+     * Returns the edit to revert, or null if there is none, and moves it to the redo side
+     * table must still hold the edit, so that the pieces of the inserted chars can be kept for redo
+     */
+    Edit undo(PieceTable table) {
+        Edit edit = done.pollLast();
+        if (edit == null) {
+            return null;
+        }
+        if (edit.insertedPieces == null) {
+            size -= edit.size();
+            edit.insertedPieces = table.span(edit.offset, edit.inserted);
+            size += edit.size();
+        }
+        undone.addLast(edit);
+        evict(edit);
+        return edit;
+    }
+
+    /** Returns the edit to apply again, or null if there is none, and moves it to the undo side */
+    Edit redo() {
+        Edit edit = undone.pollLast();
+        if (edit != null) {
+            done.addLast(edit);
+        }
+        return edit;
+    }
+
+    private void push(Edit edit) {
+        done.addLast(edit);
+        size += edit.size();
+        evict(edit);
+    }
+
+    private void clearUndone() {
+        while (!undone.isEmpty()) {
+            size -= undone.pollLast().size();
+        }
+    }
+
+    /**
+     * Drops edits while over limit, oldest first, then the redos that would be redone last
+     * Either way the edits left can still be undone or redone in order. newest, the edit just
+     * made or undone, is kept even if it is over limit on its own.
+     */
+    private void evict(Edit newest) {
+        while (size > limit && !done.isEmpty() && done.peekFirst() != newest) {
+            size -= done.pollFirst().size();
+        }
+        while (size > limit && !undone.isEmpty() && undone.peekFirst() != newest) {
+            size -= undone.pollFirst().size();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * EditorWorkload class is an operation on the document model or the layout, run on a document
+ * of some size by benchmarks.EditorBenchmark
+ *
+ * JMH only runs benchmarks declared in a named package, which can't refer to the classes of
+ * the Editor in the default package. The benchmark creates its workload by name through
+ * reflection, once per trial, and then only calls getAsLong, which returns a result for JMH
+ * to consume so that the operation isn't optimized away.
+ *
+ * Edits that grow or shrink the document start over from a fresh buffer once it doubled or
+ * halved. That is part of the operation measured, amortized over hundreds of edits.
+ *
+ * Chars are measured by a fixed width CharMetrics rather than GlyphMetrics, which needs the
+ * JavaFX toolkit running, so that the numbers only reflect the layout itself.
+ */
+public abstract class EditorWorkload implements LongSupplier {
+    private static final int WRAP_WIDTH = 490;
+
+    /** Metrics giving every char a fixed width, wide chars count double */
+    private static final CharMetrics FIXED_WIDTH = new CharMetrics() {
+        @Override
+        public double width(char c) {
+            return c == '\n' ? 0 : (c < 0x3000 ? 7 : 14);
+        }
+
+        @Override
+        public double getLineHeight() {
+            return 15;
+        }
+    };
+
+    final char[] text;
+
+    EditorWorkload(int size) {
+        text = makeText(size);
+    }
+
+    /** Returns the workload called name on a document of size chars */
+    public static LongSupplier create(String name, int size) throws IOException {
+        switch (name) {
+            case "insert.head":
+                return insert(size, 0);
+            case "insert.middle":
+                return insert(size, 1);
+            case "insert.tail":
+                return insert(size, 2);
+            case "remove.head":
+                return remove(size, 0);
+            case "remove.middle":
+                return remove(size, 1);
+            case "remove.tail":
+                return remove(size, 2);
+            case "type.middle":
+                return typeMiddle(size);
+            case "traverse":
+                return traverse(size);
+            case "load":
+                return load(size);
+            case "save":
+                return save(size);
+            case "layout.reflowAll":
+                return reflowAll(size);
+            case "layout.parallelWrap":
+                return parallelWrap(size);
+            case "layout.update":
+                return update(size);
+            default:
+                throw new IllegalArgumentException("Unknown workload " + name);
+        }
+    }
+
+    /** Inserts a char at the head, middle or tail of the buffer, for position 0, 1 or 2 */
+    private static LongSupplier insert(int size, final int position) {
+        return new EditorWorkload(size) {
+            TextBuffer buffer = new TextBuffer(text);
+
+            @Override
+            public long getAsLong() {
+                if (buffer.length() > 2 * text.length) {
+                    buffer = new TextBuffer(text);
+                }
+                buffer.insert(buffer.length() * position / 2, "x");
+                return buffer.length();
+            }
+        };
+    }
+
+    /** Removes the char at the head, middle or tail of the buffer, for position 0, 1 or 2 */
+    private static LongSupplier remove(int size, final int position) {
+        return new EditorWorkload(size) {
+            TextBuffer buffer = new TextBuffer(text);
+
+            @Override
+            public long getAsLong() {
+                if (buffer.length() < text.length / 2) {
+                    buffer = new TextBuffer(text);
+                }
+                buffer.delete((buffer.length() - 1) * position / 2, 1);
+                return buffer.length();
+            }
+        };
+    }
+
+    /** Types a char in the middle of the buffer, through the cursor */
+    private static LongSupplier typeMiddle(int size) {
+        return new EditorWorkload(size) {
+            TextBuffer buffer = middle();
+
+            TextBuffer middle() {
+                TextBuffer buffer = new TextBuffer(text);
+                buffer.setCurr(text.length / 2);
+                return buffer;
+            }
+
+            @Override
+            public long getAsLong() {
+                if (buffer.length() > 2 * text.length) {
+                    buffer = middle();
+                }
+                buffer.add('x');
+                return buffer.length();
+            }
+        };
+    }
+
+    /** Counts the newlines of the whole buffer with the traverser */
+    private static LongSupplier traverse(int size) {
+        return new EditorWorkload(size) {
+            final TextBuffer buffer = typedOver(text);
+
+            @Override
+            public long getAsLong() {
+                buffer.setCurr(0);
+                buffer.resetTrav();
+                long newlines = 0;
+                while (buffer.hasNextTrav()) {
+                    if (buffer.nextTrav() == '\n') {
+                        newlines++;
+                    }
+                }
+                return newlines;
+            }
+        };
+    }
+
+    /** Reads, decodes and wraps a file */
+    private static LongSupplier load(int size) throws IOException {
+        final File file = File.createTempFile("benchmark", ".txt");
+        file.deleteOnExit();
+        return new EditorWorkload(size) {
+            {
+                Files.write(file.toPath(), new String(text).getBytes(StandardCharsets.ISO_8859_1));
+            }
+
+            @Override
+            public long getAsLong() {
+                try {
+                    byte[] bytes = Files.readAllBytes(file.toPath());
+                    return fixedWidthLayout(new TextBuffer(TextCodec.decode(bytes).chars)).lineCount();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /** Saves a buffer edited all over to a file */
+    private static LongSupplier save(int size) throws IOException {
+        final File file = File.createTempFile("benchmark", ".txt");
+        file.deleteOnExit();
+        return new EditorWorkload(size) {
+            final PieceTable.Snapshot snapshot = typedOver(text).snapshot();
+
+            @Override
+            public long getAsLong() {
+                try {
+                    return new FileSaver(StandardCharsets.UTF_8).save(snapshot, file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /** Rewraps the whole buffer on the calling thread */
+    private static LongSupplier reflowAll(int size) {
+        return new EditorWorkload(size) {
+            final Layout layout = fixedWidthLayout(new TextBuffer(text));
+
+            @Override
+            public long getAsLong() {
+                layout.reflowAll();
+                return layout.lineCount();
+            }
+        };
+    }
+
+    /** Rewraps the whole buffer with fork join tasks, as the Editor does off the FX thread */
+    private static LongSupplier parallelWrap(int size) {
+        return new EditorWorkload(size) {
+            final TextBuffer buffer = new TextBuffer(text);
+            final Layout layout = fixedWidthLayout(buffer);
+            final PieceTable.Snapshot snapshot = buffer.snapshot();
+            final int[] paragraphStarts = layout.paragraphStarts(4 * Runtime.getRuntime().availableProcessors());
+
+            @Override
+            public long getAsLong() {
+                layout.setLineStarts(layout.wrap(snapshot, paragraphStarts, WRAP_WIDTH), WRAP_WIDTH);
+                return layout.lineCount();
+            }
+        };
+    }
+
+    /** Types near the cursor, which wanders slowly through the document, the layout following along */
+    private static LongSupplier update(int size) {
+        return new EditorWorkload(size) {
+            final Random random = new Random(0);
+            TextBuffer buffer = followed();
+
+            TextBuffer followed() {
+                TextBuffer buffer = new TextBuffer(text);
+                final Layout layout = fixedWidthLayout(buffer);
+                buffer.addListener(new TextBufferListener() {
+                    @Override
+                    public void textChanged(int offset, int removed, int inserted) {
+                        layout.update(offset, removed, inserted);
+                    }
+                });
+                return buffer;
+            }
+
+            @Override
+            public long getAsLong() {
+                if (buffer.length() > 2 * text.length) {
+                    buffer = followed();
+                }
+                int offset = Math.min(buffer.length(), Math.max(0, buffer.currOffset() + random.nextInt(200) - 100));
+                buffer.setCurr(offset);
+                buffer.add(random.nextInt(10) == 0 ? '\n' : 'x');
+                return buffer.length();
+            }
+        };
+    }
+
+    private static Layout fixedWidthLayout(TextBuffer buffer) {
+        return new Layout(buffer, FIXED_WIDTH, WRAP_WIDTH);
+    }
+
+    /** Returns a buffer holding text with typed text spread over it, so that it has many pieces */
+    private static TextBuffer typedOver(char[] text) {
+        TextBuffer buffer = new TextBuffer(text);
+        for (int i = 1; i < 100; i++) {
+            buffer.insert(text.length / 100 * i, "typed");
+        }
+        return buffer;
+    }
+
+    /** Returns size chars of text made of words and lines of varying length */
+    private static char[] makeText(int size) {
+        Random random = new Random(size);
+        char[] text = new char[size];
+        int lineLength = 0;
+        for (int i = 0; i < size; i++) {
+            int r = random.nextInt(lineLength > 60 ? 8 : 100);
+            if (r == 0) {
+                text[i] = '\n';
+                lineLength = 0;
+            } else {
+                text[i] = r < 16 ? ' ' : (char) ('a' + r % 26);
+                lineLength++;
+            }
+        }
+        return text;
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * EditorBenchmark class measures the throughput of the document model and the layout, on
+ * documents from 1KB to 100MB, run with -prof gc for their allocation rate, see the README
+ *
+ * 	workload: name of the operation measured, see EditorWorkload
+ * 	size: number of chars of the document
+ *
+ * The workloads live in the default package with the Editor, which classes in a named package
+ * can't refer to, so the workload is looked up by name once per trial and called through the
+ * LongSupplier it implements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EditorBenchmark {
+    @Param({"insert.head", "insert.middle", "insert.tail", "remove.head", "remove.middle", "remove.tail",
+            "type.middle", "traverse", "load", "save",
+            "layout.reflowAll", "layout.parallelWrap", "layout.update"})
+    public String workload;
+
+    @Param({"1024", "65536", "1048576", "16777216", "104857600"})
+    public int size;
+
+    private LongSupplier operation;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        operation = (LongSupplier) Class.forName("EditorWorkload")
+                .getMethod("create", String.class, int.class)
+                .invoke(null, workload, size);
+    }
+
+    @Benchmark
+    public long run() {
+        return operation.getAsLong();
+    }
+}